@@ -0,0 +1,83 @@
+package com.jayway.blockchain;
+
+import java.lang.String;
+
+import java.security.KeyPair;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class builds the test data shared by the benchmarks.
+ */
+class BenchmarkFixtures {
+    // The difficulty used when mining benchmark blocks outside of a chain.
+    static final int DIFFICULTY = 12;
+
+    // The key pair all benchmark transactions are signed with.
+    static final KeyPair KEY_PAIR = SignatureHelper.generateKeyPair();
+
+    /*
+     * Creates the given number of distinct, signed, transactions.
+     */
+    static List<Transaction> transactions(final String prefix, final int count) {
+        List<Transaction> transactions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            transactions.add(TransactionHelper.sign(
+                    KEY_PAIR,
+                    "0xFEDCBA987654321",
+                    prefix + i,
+                    1527924094000L + i));
+
+        return transactions;
+    }
+
+    /*
+     * Mines a valid chain of the given length, starting with a genesis block.
+     * The blocks are timestamped exactly one block interval apart, so the
+     * target never changes.
+     */
+    static Block[] chain(final int length, final int transactionsPerBlock) {
+        Block[] blocks = new Block[length];
+        String previousHash = null;
+
+        for (int i = 0; i < length; i++) {
+            List<Transaction> transactions = transactions("block " + i + ", transaction ", transactionsPerBlock);
+            String merkleRoot = MerkleHelper.root(transactions);
+            String target = DifficultyHelper.nextTarget(i == 0 ? null : blocks[i - 1], index -> blocks[index]);
+            long timestamp = 1527924094000L + i * DifficultyHelper.BLOCK_INTERVAL;
+            String rawHeader = BlockHelper.buildRawBlockHeader(i, timestamp, previousHash, merkleRoot, target);
+
+            ProofOfWork proofOfWork = new ProofOfWork(rawHeader);
+            int[] binaryTarget = DifficultyHelper.parseTarget(target);
+            long nonce = 0;
+            while (!proofOfWork.test(nonce, binaryTarget))
+                nonce++;
+
+            blocks[i] = new Block(i, nonce, timestamp, previousHash, merkleRoot, target, transactions);
+            previousHash = HashHelper.toHex(proofOfWork.digest());
+        }
+
+        return blocks;
+    }
+
+    /*
+     * Copies the given blocks, without any cached hashes.
+     */
+    static Block[] copy(final Block[] blocks) {
+        Block[] copies = new Block[blocks.length];
+        for (int i = 0; i < blocks.length; i++) {
+            Block block = blocks[i];
+            copies[i] = new Block(block.index,
+                    block.nonce,
+                    block.timestamp,
+                    block.previousHashString,
+                    block.merkleRoot,
+                    block.target,
+                    block.transactions);
+        }
+
+        return copies;
+    }
+
+}
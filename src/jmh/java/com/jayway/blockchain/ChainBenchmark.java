@@ -0,0 +1,64 @@
+package com.jayway.blockchain;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the validation of an entire chain, as received when a new node
+ * synchronizes, both on its own through {@link BlockValidator} and as part
+ * of {@link Blockchain#appendBlocks(Block...)}. Each invocation works on
+ * fresh copies of the blocks and a fresh validator, so no hashes or verified
+ * signatures are cached.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChainBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int chainLength;
+
+    private Block[] chain;
+    private Block[] candidates;
+    private BlockValidator validator;
+    private Blockchain blockchain;
+
+    @Setup
+    public void mineChain() {
+        chain = BenchmarkFixtures.chain(chainLength, 4);
+    }
+
+    @Setup(Level.Invocation)
+    public void prepare() {
+        candidates = BenchmarkFixtures.copy(chain);
+        validator = new BlockValidator();
+        blockchain = new Blockchain(1);
+    }
+
+    @Benchmark
+    public boolean appendBlocks() {
+        return blockchain.appendBlocks(candidates);
+    }
+
+    @Benchmark
+    public boolean verifyIntegrity() {
+        return validator.verifyContents(candidates) < 0 &&
+                validator.verifyLinks(null, candidates, index -> null) < 0;
+    }
+
+}
@@ -0,0 +1,51 @@
+package com.jayway.blockchain;
+
+import java.lang.String;
+import java.lang.StringBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link HashHelper#hash(String)} for a block header sized payload
+ * and a larger one.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HashBenchmark {
+
+    @Param({"100", "1000"})
+    public int length;
+
+    private String payload;
+
+    @Setup
+    public void setup() {
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++)
+            builder.append((char) ('a' + i % 26));
+
+        payload = builder.toString();
+    }
+
+    @Benchmark
+    public String hash() {
+        return HashHelper.hash(payload);
+    }
+
+}
@@ -0,0 +1,86 @@
+package com.jayway.blockchain;
+
+import java.lang.String;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of hashing a block for a single nonce, both through
+ * {@link BlockHelper#hashBlock(long, String)} and through the mining midstate
+ * in {@link ProofOfWork}, as well as the cost of an entire single threaded
+ * nonce search at a fixed difficulty.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MiningBenchmark {
+
+    @Param({"1", "100", "1000"})
+    public int transactionCount;
+
+    private Block block;
+    private String rawHeader;
+    private ProofOfWork proofOfWork;
+    private int[] target;
+    private long nonce;
+    private long searchStart;
+
+    @Setup
+    public void setup() {
+        List<Transaction> transactions = BenchmarkFixtures.transactions("mining ", transactionCount);
+        block = new Block(1, 0, 1527924094000L, HashHelper.hash("genesis"), transactions);
+        rawHeader = BlockHelper.buildRawBlockHeader(block);
+        proofOfWork = new ProofOfWork(rawHeader);
+        target = ProofOfWork.targetOf(BenchmarkFixtures.DIFFICULTY);
+    }
+
+    /**
+     * Builds the header from the block and hashes it, as done for each block
+     * that isn't hashed already.
+     */
+    @Benchmark
+    public String hashBlock() {
+        return BlockHelper.hashBlock(nonce++, BlockHelper.buildRawBlockHeader(block));
+    }
+
+    /**
+     * Tests a single nonce against a prepared header, as done when mining.
+     */
+    @Benchmark
+    public boolean testNonce() {
+        return proofOfWork.test(nonce++, target);
+    }
+
+    /**
+     * Searches for a nonce meeting the target, starting at a new point for
+     * each invocation.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long mine() {
+        long candidate = searchStart;
+        searchStart += 1L << 32;
+        while (!proofOfWork.test(candidate, target))
+            candidate++;
+
+        return candidate;
+    }
+
+}
@@ -0,0 +1,84 @@
+package com.jayway.blockchain;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.String;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Measures the parsing of a received block: straight from JSON with Gson,
+ * from the raw request bytes in one streaming pass (as a JSON request body
+ * is parsed by the server), through a Jackson tree first (as the server used
+ * to) and from the binary format.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBenchmark {
+
+    @Param({"1", "100", "1000"})
+    public int transactionCount;
+
+    private String json;
+    private byte[] jsonBytes;
+    private byte[] binary;
+    private ObjectMapper objectMapper;
+
+    @Setup
+    public void setup() {
+        Block block = new Block(1, 4711, 1527924094000L, HashHelper.hash("genesis"),
+                BenchmarkFixtures.transactions("parse ", transactionCount));
+
+        json = JsonHelper.toJson(block);
+        jsonBytes = json.getBytes(UTF_8);
+        binary = BinaryCodec.encodeBlock(block);
+        objectMapper = new ObjectMapper();
+    }
+
+    @Benchmark
+    public Block gson() {
+        return BlockHelper.parseBlock(json);
+    }
+
+    @Benchmark
+    public Block gsonStream() {
+        return JsonHelper.fromJson(new ByteArrayInputStream(jsonBytes), Block.class);
+    }
+
+    @Benchmark
+    public JsonNode jackson() throws IOException {
+        return objectMapper.readTree(json);
+    }
+
+    @Benchmark
+    public Block jacksonThenGson() throws IOException {
+        return BlockHelper.parseBlock(objectMapper.readTree(json).toString());
+    }
+
+    @Benchmark
+    public Block binary() {
+        return BinaryCodec.decodeBlock(binary);
+    }
+
+}
@@ -0,0 +1,63 @@
+package com.jayway.blockchain;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link Blockchain#record(Transaction)} with different numbers of
+ * transactions already pending. Each recorded transaction is removed again
+ * right away, keeping the pending set at a steady size. The recorded
+ * transactions are cycled through a ring four times the size of the
+ * signature cache, so each one is evicted from the cache before it comes
+ * around again and every record pays for a full signature verification.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "-Dblockchain.signatures.cacheSize=" + RecordBenchmark.CACHE_SIZE})
+public class RecordBenchmark {
+    static final int CACHE_SIZE = 1024;
+    private static final int RING_SIZE = 4 * CACHE_SIZE;
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int pendingCount;
+
+    private Mempool mempool;
+    private Blockchain blockchain;
+    private Transaction[] ring;
+    private int next;
+
+    @Setup
+    public void setup() {
+        mempool = new Mempool(pendingCount + RING_SIZE, TimeUnit.DAYS.toMillis(1));
+        blockchain = new Blockchain(1, mempool);
+        for (Transaction transaction : BenchmarkFixtures.transactions("pending ", pendingCount))
+            blockchain.record(transaction);
+
+        List<Transaction> extra = BenchmarkFixtures.transactions("recorded ", RING_SIZE);
+        ring = extra.toArray(new Transaction[RING_SIZE]);
+    }
+
+    @Benchmark
+    public boolean record() {
+        Transaction transaction = ring[next++ & (RING_SIZE - 1)];
+        boolean recorded = blockchain.record(transaction);
+        mempool.remove(transaction.hash);
+        return recorded;
+    }
+
+}
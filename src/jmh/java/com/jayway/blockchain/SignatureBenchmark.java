@@ -0,0 +1,71 @@
+package com.jayway.blockchain;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the verification of a batch of signed transactions through
+ * {@link SignatureVerifier}: one by one, in parallel, and in parallel again
+ * once the whole batch is in the verified cache (as when the transactions of
+ * a block were already verified in the mempool).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SignatureBenchmark {
+
+    @Param({"100", "1000"})
+    public int batchSize;
+
+    private List<Transaction> batch;
+    private SignatureVerifier coldVerifier;
+    private SignatureVerifier warmVerifier;
+
+    @Setup
+    public void setup() {
+        batch = BenchmarkFixtures.transactions("signed ", batchSize);
+        warmVerifier = new SignatureVerifier();
+        warmVerifier.verifyAll(batch);
+    }
+
+    @Setup(Level.Invocation)
+    public void prepare() {
+        coldVerifier = new SignatureVerifier();
+    }
+
+    @Benchmark
+    public boolean sequential() {
+        boolean valid = true;
+        for (Transaction transaction : batch)
+            valid &= coldVerifier.verify(transaction);
+
+        return valid;
+    }
+
+    @Benchmark
+    public boolean parallel() {
+        return coldVerifier.verifyAll(batch);
+    }
+
+    @Benchmark
+    public boolean cached() {
+        return warmVerifier.verifyAll(batch);
+    }
+
+}
@@ -0,0 +1,395 @@
+package com.jayway.blockchain;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import java.lang.Character;
+import java.lang.IllegalArgumentException;
+import java.lang.String;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * This class knows how to encode blocks and transactions in a compact binary
+ * format, and how to decode them again. All numbers are big-endian, strings
+ * are UTF-8 encoded and prefixed with their byte length (-1 for null) and
+ * hashes and signatures are sent as their raw 32 and 64 bytes. Each payload
+ * starts with a format version byte.
+ * <p>
+ * A transaction is encoded as:
+ * <pre>
+ *     hash[32] sender receiver data timestamp:long signature[64]
+ * </pre>
+ * A block is encoded as:
+ * <pre>
+ *     index:int nonce:long timestamp:long hasPrevHash:byte [prevHash[32]]
+ *     merkleRoot[32] target[32] transactionCount:int transaction...
+ * </pre>
+ * Lists are encoded as an item count followed by the items.
+ */
+public class BinaryCodec {
+    public static final String MEDIA_TYPE = "application/x-blockchain";
+
+    private static final byte VERSION = 4;
+    private static final int HASH_SIZE = 32;
+    private static final int SIGNATURE_SIZE = 64;
+
+    /**
+     * Tests whether the given media type, as found in a "Content-Type" or
+     * "Accept" header, refers to this binary format.
+     *
+     * @param mediaType The media type header value. May be null.
+     * @return Boolean true if the binary format is requested, else false.
+     */
+    public static boolean isBinary(final String mediaType) {
+        return mediaType != null && mediaType.contains(MEDIA_TYPE);
+    }
+
+    /**
+     * Encodes a single block.
+     *
+     * @param block The block to encode.
+     * @return The binary representation of the block.
+     */
+    public static byte[] encodeBlock(final Block block) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream output = new DataOutputStream(bytes);
+            output.writeByte(VERSION);
+            writeBlock(output, block);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            // Can't happen when writing to memory.
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Encodes a list of blocks.
+     *
+     * @param blocks The blocks to encode.
+     * @return The binary representation of the blocks.
+     */
+    public static byte[] encodeBlocks(final List<Block> blocks) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream output = new DataOutputStream(bytes);
+            output.writeByte(VERSION);
+            output.writeInt(blocks.size());
+            for (Block block : blocks)
+                writeBlock(output, block);
+
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            // Can't happen when writing to memory.
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Encodes the leading part of a list of blocks, allowing the list to be
+     * streamed. The prefix is to be followed by exactly {@code count} items,
+     * each encoded with {@link #encodeListItem(Block)}.
+     *
+     * @param count The number of blocks in the list.
+     * @return The binary representation of the list prefix.
+     */
+    public static byte[] encodeListPrefix(final int count) {
+        return new byte[]{
+                VERSION,
+                (byte) (count >>> 24),
+                (byte) (count >>> 16),
+                (byte) (count >>> 8),
+                (byte) count
+        };
+    }
+
+    /**
+     * Encodes a single block as an item in a streamed list of blocks.
+     *
+     * @param block The block to encode.
+     * @return The binary representation of the block, without any version.
+     */
+    public static byte[] encodeListItem(final Block block) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            writeBlock(new DataOutputStream(bytes), block);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            // Can't happen when writing to memory.
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Encodes a list of transactions.
+     *
+     * @param transactions The transactions to encode.
+     * @return The binary representation of the transactions.
+     */
+    public static byte[] encodeTransactions(final List<Transaction> transactions) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream output = new DataOutputStream(bytes);
+            output.writeByte(VERSION);
+            output.writeInt(transactions.size());
+            for (Transaction transaction : transactions)
+                writeTransaction(output, transaction);
+
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            // Can't happen when writing to memory.
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Calculates the number of bytes the given transaction takes up in a
+     * binary block, without actually encoding it.
+     *
+     * @param transaction The transaction to measure.
+     * @return The size of the encoded transaction in bytes.
+     */
+    public static int sizeOf(final Transaction transaction) {
+        return HASH_SIZE +
+                sizeOf(transaction.sender) +
+                sizeOf(transaction.receiver) +
+                sizeOf(transaction.data) +
+                8 +
+                SIGNATURE_SIZE;
+    }
+
+    /**
+     * Decodes a single block.
+     *
+     * @param bytes The binary representation of the block.
+     * @return The decoded block.
+     * @throws IllegalArgumentException if the bytes aren't a valid block.
+     */
+    public static Block decodeBlock(final byte[] bytes) throws IllegalArgumentException {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            checkVersion(buffer);
+            Block block = getBlock(buffer);
+            checkConsumed(buffer);
+            return block;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated block", e);
+        }
+    }
+
+    /**
+     * Decodes a list of blocks. An empty payload is treated as an empty list.
+     *
+     * @param bytes The binary representation of the blocks.
+     * @return The decoded blocks.
+     * @throws IllegalArgumentException if the bytes aren't valid blocks.
+     */
+    public static Block[] decodeBlocks(final byte[] bytes) throws IllegalArgumentException {
+        if (bytes == null || bytes.length == 0)
+            return new Block[0];
+
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            checkVersion(buffer);
+            Block[] blocks = new Block[getCount(buffer)];
+            for (int i = 0; i < blocks.length; i++)
+                blocks[i] = getBlock(buffer);
+
+            checkConsumed(buffer);
+            return blocks;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated blocks", e);
+        }
+    }
+
+    /**
+     * Decodes a list of transactions. An empty payload is treated as an empty
+     * list.
+     *
+     * @param bytes The binary representation of the transactions.
+     * @return The decoded transactions.
+     * @throws IllegalArgumentException if the bytes aren't valid transactions.
+     */
+    public static Transaction[] decodeTransactions(final byte[] bytes) throws IllegalArgumentException {
+        if (bytes == null || bytes.length == 0)
+            return new Transaction[0];
+
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            checkVersion(buffer);
+            Transaction[] transactions = new Transaction[getCount(buffer)];
+            for (int i = 0; i < transactions.length; i++)
+                transactions[i] = getTransaction(buffer);
+
+            checkConsumed(buffer);
+            return transactions;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated transactions", e);
+        }
+    }
+
+    private static void writeBlock(final DataOutputStream output, final Block block) throws IOException {
+        output.writeInt(block.index);
+        output.writeLong(block.nonce);
+        output.writeLong(block.timestamp);
+
+        if (block.previousHashString == null) {
+            output.writeByte(0);
+        } else {
+            output.writeByte(1);
+            writeHash(output, block.previousHashString);
+        }
+
+        writeHash(output, block.merkleRoot);
+        writeHash(output, block.target);
+
+        output.writeInt(block.transactions.size());
+        for (Transaction transaction : block.transactions)
+            writeTransaction(output, transaction);
+    }
+
+    private static void writeTransaction(final DataOutputStream output,
+                                         final Transaction transaction) throws IOException {
+
+        writeHash(output, transaction.hash);
+        writeString(output, transaction.sender);
+        writeString(output, transaction.receiver);
+        writeString(output, transaction.data);
+        output.writeLong(transaction.timestamp);
+        writeSignature(output, transaction.signature);
+    }
+
+    private static void writeHash(final DataOutputStream output, final String hash) throws IOException {
+        byte[] bytes = HashHelper.fromHex(hash);
+        if (bytes.length != HASH_SIZE)
+            throw new IllegalArgumentException("Invalid hash: " + hash);
+
+        output.write(bytes);
+    }
+
+    private static void writeSignature(final DataOutputStream output, final String signature) throws IOException {
+        byte[] bytes = HashHelper.fromHex(signature);
+        if (bytes.length != SIGNATURE_SIZE)
+            throw new IllegalArgumentException("Invalid signature: " + signature);
+
+        output.write(bytes);
+    }
+
+    private static void writeString(final DataOutputStream output, final String string) throws IOException {
+        if (string == null) {
+            output.writeInt(-1);
+        } else {
+            byte[] bytes = string.getBytes(UTF_8);
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        }
+    }
+
+    /*
+     * Calculates the size of an encoded string, length prefix included,
+     * without encoding it.
+     */
+    private static int sizeOf(final String string) {
+        if (string == null)
+            return 4;
+
+        int size = 4;
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            if (c < 0x80) {
+                size += 1;
+            } else if (c < 0x800) {
+                size += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < string.length() &&
+                    Character.isLowSurrogate(string.charAt(i + 1))) {
+                size += 4;
+                i++;
+            } else {
+                size += 3;
+            }
+        }
+
+        return size;
+    }
+
+    private static Block getBlock(final ByteBuffer buffer) {
+        int index = buffer.getInt();
+        long nonce = buffer.getLong();
+        long timestamp = buffer.getLong();
+        String previousHash = buffer.get() == 0 ? null : getHash(buffer);
+        String merkleRoot = getHash(buffer);
+        String target = getHash(buffer);
+
+        int count = getCount(buffer);
+        List<Transaction> transactions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            transactions.add(getTransaction(buffer));
+
+        return new Block(index, nonce, timestamp, previousHash, merkleRoot, target, transactions);
+    }
+
+    private static Transaction getTransaction(final ByteBuffer buffer) {
+        String hash = getHash(buffer);
+        String sender = getString(buffer);
+        String receiver = getString(buffer);
+        String data = getString(buffer);
+        long timestamp = buffer.getLong();
+        String signature = getSignature(buffer);
+        return new Transaction(hash, sender, receiver, data, timestamp, signature);
+    }
+
+    private static String getHash(final ByteBuffer buffer) {
+        byte[] bytes = new byte[HASH_SIZE];
+        buffer.get(bytes);
+        return HashHelper.toHex(bytes);
+    }
+
+    private static String getSignature(final ByteBuffer buffer) {
+        byte[] bytes = new byte[SIGNATURE_SIZE];
+        buffer.get(bytes);
+        return HashHelper.toHex(bytes);
+    }
+
+    private static String getString(final ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length == -1)
+            return null;
+
+        if (length < 0 || length > buffer.remaining())
+            throw new IllegalArgumentException("Invalid string length: " + length);
+
+        String string = new String(buffer.array(), buffer.position(), length, UTF_8);
+        buffer.position(buffer.position() + length);
+        return string;
+    }
+
+    private static int getCount(final ByteBuffer buffer) {
+        int count = buffer.getInt();
+        // Each item needs at least one byte, anything else is a lie.
+        if (count < 0 || count > buffer.remaining())
+            throw new IllegalArgumentException("Invalid item count: " + count);
+
+        return count;
+    }
+
+    private static void checkVersion(final ByteBuffer buffer) {
+        byte version = buffer.get();
+        if (version != VERSION)
+            throw new IllegalArgumentException("Unsupported format version: " + version);
+    }
+
+    private static void checkConsumed(final ByteBuffer buffer) {
+        if (buffer.hasRemaining())
+            throw new IllegalArgumentException("Unexpected trailing bytes: " + buffer.remaining());
+    }
+
+}
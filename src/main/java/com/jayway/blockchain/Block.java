@@ -13,8 +13,13 @@ public class Block {
     public final long nonce;
     public final long timestamp;
     public final String previousHashString;
+    public final String merkleRoot;
+    public final String target;
     public final List<Transaction> transactions;
 
+    // The hash of this block. Calculated lazily, the first time it's needed,
+    // and never serialized.
+    transient volatile String cachedHash;
     
     public Block(final int index,
                  final long nonce,
@@ -22,10 +27,29 @@ public class Block {
                  final String previousHashString,
                  final List<Transaction> transactions) {
 
+        this(index,
+                nonce,
+                timestamp,
+                previousHashString,
+                MerkleHelper.root(transactions),
+                DifficultyHelper.INITIAL_TARGET,
+                transactions);
+    }
+
+    public Block(final int index,
+                 final long nonce,
+                 final long timestamp,
+                 final String previousHashString,
+                 final String merkleRoot,
+                 final String target,
+                 final List<Transaction> transactions) {
+
         this.index = index;
         this.nonce = nonce;
         this.timestamp = timestamp;
         this.previousHashString = previousHashString;
+        this.merkleRoot = merkleRoot;
+        this.target = target;
         this.transactions = new ArrayList<>();
 
         if (transactions != null && !transactions.isEmpty())
@@ -33,34 +57,3 @@ public class Block {
     }
 
 }
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
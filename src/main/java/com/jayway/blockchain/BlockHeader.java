@@ -0,0 +1,36 @@
+package com.jayway.blockchain;
+
+import java.lang.String;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *  This class represents the header of a block in the block chain. It carries
+ *  everything needed to verify the block hash, but only the hashes of the
+ *  transactions, not the transactions themselves.
+ */
+public class BlockHeader {
+    public final int index;
+    public final long nonce;
+    public final long timestamp;
+    public final String previousHashString;
+    public final String merkleRoot;
+    public final String target;
+    public final String hash;
+    public final List<String> transactionHashes;
+
+    public BlockHeader(final Block block) {
+        this.index = block.index;
+        this.nonce = block.nonce;
+        this.timestamp = block.timestamp;
+        this.previousHashString = block.previousHashString;
+        this.merkleRoot = block.merkleRoot;
+        this.target = block.target;
+        this.hash = BlockHelper.hashBlock(block);
+        this.transactionHashes = new ArrayList<>(block.transactions.size());
+
+        for (Transaction transaction : block.transactions)
+            this.transactionHashes.add(transaction.hash);
+    }
+
+}
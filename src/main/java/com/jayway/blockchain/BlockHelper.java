@@ -1,12 +1,8 @@
 package com.jayway.blockchain;
 
-import com.google.gson.Gson;
-
 import java.lang.String;
 import java.lang.StringBuilder;
 
-import java.util.List;
-
 
 /**
  * This class offers convenince methods for operations on {@link Block}
@@ -21,7 +17,7 @@ public class BlockHelper {
      * @return The corresponding Block object.
      */
     public static Block parseBlock(final String json) {
-        return new Gson().fromJson(json, Block.class);
+        return JsonHelper.gson().fromJson(json, Block.class);
     }
 
     /**
@@ -31,7 +27,7 @@ public class BlockHelper {
      * @return The corresponding Block objects.
      */
     public static Block[] parseBlocks(final String json) {
-        return new Gson().fromJson(json, Block[].class);
+        return JsonHelper.gson().fromJson(json, Block[].class);
     }
 
     /**
@@ -47,61 +43,103 @@ public class BlockHelper {
         return buildRawBlockHeader(block.index,
                 block.timestamp,
                 block.previousHashString,
-                block.transactions);
+                block.merkleRoot,
+                block.target);
     }
 
     /**
      * Builds an unobscured raw header string from the provided data. The
      * produced header isn't in itself enough to uniquely identify the data.
      * For that, a suitable nonce needs to be added before hashing it.
+     * <p>
+     * The transactions are represented by their Merkle root only, so the
+     * header size doesn't depend on the number of transactions in the block.
+     * The target is part of the header, so that a block can't claim an
+     * easier target than it was mined for.
      *
      * @param index         The index of the block this data belongs to.
      * @param timestamp     The start time when the block was mined.
      * @param referenceHash The hash of the previous block in the chain.
-     * @param transactions  The list of transactions in the block.
+     * @param merkleRoot    The Merkle root of the transactions in the block.
+     * @param target        The proof-of-work target of the block.
      * @return The block header string that can be used as input in the
      * hashing proces.
      */
     public static String buildRawBlockHeader(final int index,
                                              final long timestamp,
                                              final String referenceHash,
-                                             final List<Transaction> transactions) {
+                                             final String merkleRoot,
+                                             final String target) {
 
-        StringBuilder stringBuilder = new StringBuilder()
+        return new StringBuilder()
                 .append(index)
                 .append(timestamp)
-                .append(referenceHash);
-
-        for (Transaction transaction : transactions)
-            stringBuilder.append(transaction.hash);
-
-        return stringBuilder.toString();
+                .append(referenceHash)
+                .append(merkleRoot)
+                .append(target)
+                .toString();
     }
 
     /**
      * Generates a unique block hash based on the data found in the provided
      * block.
      * <p>
-     * This method will build a block header from scratch every time invoked,
-     * hence, it's not optimal to use in the mining process.
+     * This method will build a block header from scratch the first time it's
+     * invoked for a block, hence, it's not optimal to use in the mining
+     * process. The result is cached in the (immutable) block, so any further
+     * invocations for the same block instance are cheap.
      *
      * @param block The block to hash.
      * @return A unique hash based on the provided block data.
      */
     public static String hashBlock(final Block block) {
-        String header = buildRawBlockHeader(block);
-        return hashBlock(block.nonce, header);
+        String hash = block.cachedHash;
+        if (hash == null) {
+            hash = hashBlock(block.nonce, buildRawBlockHeader(block));
+            block.cachedHash = hash;
+        }
+
+        return hash;
+    }
+
+    /**
+     * Attaches an already known hash to the provided block, sparing it from
+     * being rehashed later on. The caller is responsible for the hash really
+     * being the hash of the block.
+     *
+     * @param block The block to attach the hash to.
+     * @param hash  The hash of the block.
+     * @return The same block.
+     */
+    static Block withHash(final Block block, final String hash) {
+        block.cachedHash = hash;
+        return block;
     }
 
     /**
      * Generates a unique block hash based on a nonce and a raw block header.
+     * The nonce is appended to the header, allowing the mining process to
+     * reuse the hash state of the (fixed) header for all nonces.
      *
      * @param nonce  The nonce to decorate the header with.
      * @param header The raw unobscured header of the block to hash.
      * @return A unique hash based on the provided block data.
      */
     public static String hashBlock(final long nonce, final String header) {
-        return HashHelper.hash(nonce + header);
+        return HashHelper.hash(header + nonce);
+    }
+
+    /**
+     * Tests whether the hash of the provided block meets the given binary
+     * proof-of-work target.
+     *
+     * @param block  The block to test.
+     * @param target The target, as produced by {@link ProofOfWork#targetOf(int)}.
+     * @return Boolean true if the block hash meets the target, else false.
+     */
+    public static boolean meetsTarget(final Block block, final int[] target) {
+        return block.nonce >= 0 &&
+                ProofOfWork.meetsTarget(HashHelper.fromHex(hashBlock(block)), target);
     }
 
 }
@@ -0,0 +1,550 @@
+package com.jayway.blockchain;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import java.lang.IllegalArgumentException;
+import java.lang.Integer;
+import java.lang.Long;
+import java.lang.String;
+import java.lang.Thread;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class persists blocks in an append-only, segmented log on disk. Each
+ * block is written in the {@link BinaryCodec} format as a record, prefixed
+ * with its length and a checksum, to the active segment file. When a
+ * segment is full a new one is started. A separate index file holds a fixed
+ * size entry for each block: the segment, offset and length of its record
+ * together with the block hash.
+ * <p>
+ * Writes aren't forced to disk one by one. Instead they are synced in
+ * batches, either when enough blocks have been appended or, at the latest, a
+ * short while after the first unsynced append. Reads of sealed segments go
+ * through memory mapped buffers, so old blocks are served by the operating
+ * system page cache rather than from the Java heap.
+ * <p>
+ * On start-up only the index is read. Any records that made it to the log but
+ * not to the index (a crash between the two writes) are recovered and any
+ * torn record at the end of the log is cut off.
+ */
+public class BlockStore implements Closeable {
+    private static final int INDEX_MAGIC = 0x424c4b49;
+    private static final int VERSION = 5;
+    private static final int INDEX_HEADER_SIZE = 8;
+    private static final int INDEX_ENTRY_SIZE = 44;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final long SEGMENT_SIZE = 64L * 1024 * 1024;
+    private static final int SYNC_BATCH_SIZE = 64;
+    private static final long SYNC_INTERVAL = 200;
+    private static final String INDEX_FILE = "index.dat";
+    private static final String LOCK_FILE = "lock";
+    private static final String SEGMENT_FILE = "segment-%08d.log";
+
+    private final Path directory;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    private final FileChannel indexChannel;
+    private final ConcurrentHashMap<Integer, FileChannel> channels;
+    private final ConcurrentHashMap<Integer, MappedByteBuffer> mappedSegments;
+    private final ScheduledExecutorService syncService;
+    private final Object writeLock;
+
+    // The in-memory copy of the index. The arrays may be replaced by larger
+    // copies, but never before the size is published.
+    private volatile long[] positions;
+    private volatile int[] lengths;
+    private volatile String[] hashes;
+    private volatile int size;
+
+    private volatile int activeSegment;
+    private long activeSize;
+    private int unsyncedCount;
+    private boolean syncScheduled;
+
+    /**
+     * Opens, or creates, a block store in the given directory. The directory
+     * is locked for the lifetime of the store; no other process can open it
+     * at the same time.
+     *
+     * @param directory The directory to keep the block files in.
+     * @return The opened block store.
+     * @throws IOException if the store couldn't be opened or recovered.
+     */
+    public static BlockStore open(final Path directory) throws IOException {
+        Files.createDirectories(directory);
+        return new BlockStore(directory);
+    }
+
+    // Hidden constructor
+    private BlockStore(final Path directory) throws IOException {
+        this.directory = directory;
+        this.channels = new ConcurrentHashMap<>();
+        this.mappedSegments = new ConcurrentHashMap<>();
+        this.writeLock = new Object();
+        this.positions = new long[1024];
+        this.lengths = new int[1024];
+        this.hashes = new String[1024];
+
+        lockChannel = FileChannel.open(directory.resolve(LOCK_FILE),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+
+        FileLock fileLock;
+        try {
+            fileLock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            fileLock = null;
+        }
+
+        lock = fileLock;
+        if (lock == null) {
+            lockChannel.close();
+            throw new IOException("Block store already in use: " + directory);
+        }
+
+        indexChannel = FileChannel.open(directory.resolve(INDEX_FILE),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+
+        recover();
+
+        syncService = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "block-store-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Returns the number of blocks in the store.
+     *
+     * @return The block count.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the hash of the block at the given index, as recorded when the
+     * block was appended.
+     *
+     * @param index The index of the block.
+     * @return The block hash.
+     */
+    public String getHash(final int index) {
+        checkIndex(index);
+        return hashes[index];
+    }
+
+    /**
+     * Reads the block at the given index from disk. The returned block is a
+     * new instance each time and comes with its hash already attached.
+     *
+     * @param index The index of the block.
+     * @return The block.
+     * @throws UncheckedIOException if the block couldn't be read.
+     */
+    public Block read(final int index) throws UncheckedIOException {
+        checkIndex(index);
+        long position = positions[index];
+        int segment = (int) (position >>> 32);
+        int offset = (int) position + RECORD_HEADER_SIZE;
+        byte[] payload = new byte[lengths[index]];
+
+        try {
+            if (segment < activeSegment) {
+                ByteBuffer buffer = getMappedSegment(segment).duplicate();
+                buffer.position(offset);
+                buffer.get(payload);
+            } else {
+                readFully(getChannel(segment), ByteBuffer.wrap(payload), offset);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Couldn't read block " + index, e);
+        }
+
+        return BlockHelper.withHash(decode(payload), hashes[index]);
+    }
+
+    /**
+     * Appends the given blocks to the end of the log. The blocks are expected
+     * to be validated and to continue where the store ends. The appended
+     * blocks are readable immediately, but only guaranteed to be durable once
+     * the next batched sync has completed.
+     *
+     * @param blocks The blocks to append.
+     * @throws UncheckedIOException if the blocks couldn't be written.
+     */
+    public void append(final List<Block> blocks) throws UncheckedIOException {
+        synchronized (writeLock) {
+            try {
+                for (Block block : blocks)
+                    appendRecord(encode(block), BlockHelper.hashBlock(block));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Couldn't append blocks", e);
+            }
+
+            unsyncedCount += blocks.size();
+            if (unsyncedCount >= SYNC_BATCH_SIZE) {
+                sync();
+            } else if (!syncScheduled && unsyncedCount > 0) {
+                syncScheduled = true;
+                syncService.schedule(this::sync, SYNC_INTERVAL, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Forces all appended blocks to disk.
+     *
+     * @throws UncheckedIOException if the blocks couldn't be synced.
+     */
+    public void sync() throws UncheckedIOException {
+        synchronized (writeLock) {
+            syncScheduled = false;
+            if (unsyncedCount == 0)
+                return;
+
+            try {
+                getChannel(activeSegment).force(false);
+                indexChannel.force(false);
+                unsyncedCount = 0;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Couldn't sync blocks", e);
+            }
+        }
+    }
+
+    /**
+     * Syncs any pending writes and releases all resources held by the store.
+     *
+     * @throws IOException if the resources couldn't be released.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (writeLock) {
+            sync();
+            syncService.shutdownNow();
+            for (FileChannel channel : channels.values())
+                channel.close();
+
+            mappedSegments.clear();
+            indexChannel.close();
+            lock.release();
+            lockChannel.close();
+        }
+    }
+
+    /*
+     * Writes a record to the active segment and its entry to the index. A new
+     * segment is started if the record doesn't fit in the active one. Must
+     * be called with the write lock held.
+     */
+    private void appendRecord(final byte[] payload, final String hash) throws IOException {
+        if (activeSize > 0 && activeSize + RECORD_HEADER_SIZE + payload.length > SEGMENT_SIZE) {
+            getChannel(activeSegment).force(false);
+            activeSegment++;
+            activeSize = 0;
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.length);
+        record.putInt(payload.length);
+        record.putInt((int) crc.getValue());
+        record.put(payload);
+        record.flip();
+
+        long offset = activeSize;
+        writeFully(getChannel(activeSegment), record, offset);
+        activeSize += RECORD_HEADER_SIZE + payload.length;
+
+        writeIndexEntry(size, activeSegment, (int) offset, payload.length, hash);
+        addEntry(activeSegment, (int) offset, payload.length, hash);
+    }
+
+    /*
+     * Reads the index into memory and brings it in line with the log. Entries
+     * pointing beyond the end of the log are dropped, while complete records
+     * in the log that aren't indexed are indexed. A torn record ends the log.
+     */
+    private void recover() throws IOException {
+        List<Integer> segments = listSegments();
+        Map<Integer, Long> segmentSizes = new HashMap<>();
+        for (int segment : segments)
+            segmentSizes.put(segment, Files.size(segmentPath(segment)));
+
+        long indexSize = indexChannel.size();
+
+        if (indexSize < INDEX_HEADER_SIZE) {
+            ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_SIZE);
+            header.putInt(INDEX_MAGIC).putInt(VERSION).flip();
+            indexChannel.truncate(0);
+            writeFully(indexChannel, header, 0);
+        } else {
+            ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_SIZE);
+            readFully(indexChannel, header, 0);
+            header.flip();
+            if (header.getInt() != INDEX_MAGIC || header.getInt() != VERSION)
+                throw new IOException("Unsupported block store format: " + directory);
+
+            int count = (int) ((indexSize - INDEX_HEADER_SIZE) / INDEX_ENTRY_SIZE);
+            ByteBuffer entries = ByteBuffer.allocate(count * INDEX_ENTRY_SIZE);
+            readFully(indexChannel, entries, INDEX_HEADER_SIZE);
+            entries.flip();
+
+            byte[] hash = new byte[32];
+            for (int i = 0; i < count; i++) {
+                int segment = entries.getInt();
+                int offset = entries.getInt();
+                int length = entries.getInt();
+                entries.get(hash);
+
+                // Drop any entries that point beyond the end of the log.
+                Long segmentSize = segmentSizes.get(segment);
+                if (segmentSize == null || offset + RECORD_HEADER_SIZE + length > segmentSize)
+                    break;
+
+                addEntry(segment, offset, length, HashHelper.toHex(hash));
+            }
+        }
+
+        indexChannel.truncate(INDEX_HEADER_SIZE + (long) size * INDEX_ENTRY_SIZE);
+
+        // Find where the indexed part of the log ends and recover any records
+        // beyond that point.
+        int segment = 0;
+        long offset = 0;
+        if (size > 0) {
+            long position = positions[size - 1];
+            segment = (int) (position >>> 32);
+            offset = (int) position + RECORD_HEADER_SIZE + lengths[size - 1];
+        }
+
+        for (int s : segments) {
+            if (s < segment)
+                continue;
+
+            long end = recoverSegment(s, s == segment ? offset : 0);
+            if (end < 0) {
+                // The log ends here. Drop any later segments.
+                for (int later : segments)
+                    if (later > s)
+                        Files.delete(segmentPath(later));
+                break;
+            }
+
+            segment = s;
+            offset = end;
+        }
+
+        activeSegment = segment;
+        activeSize = Files.exists(segmentPath(segment)) ? Files.size(segmentPath(segment)) : 0;
+        indexChannel.force(false);
+    }
+
+    /*
+     * Indexes any complete records in the given segment, starting at the
+     * given offset. Returns the end offset of the segment, or -1 if a torn or
+     * corrupt record was found (and cut off).
+     */
+    private long recoverSegment(final int segment, final long start) throws IOException {
+        FileChannel channel = getChannel(segment);
+        long fileSize = channel.size();
+        long offset = start;
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+
+        while (offset < fileSize) {
+            header.clear();
+            if (offset + RECORD_HEADER_SIZE > fileSize) {
+                channel.truncate(offset);
+                return -1;
+            }
+
+            readFully(channel, header, offset);
+            header.flip();
+            int length = header.getInt();
+            int checksum = header.getInt();
+
+            if (length < 0 || offset + RECORD_HEADER_SIZE + length > fileSize) {
+                channel.truncate(offset);
+                return -1;
+            }
+
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(channel, payload, offset + RECORD_HEADER_SIZE);
+
+            CRC32 crc = new CRC32();
+            crc.update(payload.array());
+            if ((int) crc.getValue() != checksum) {
+                channel.truncate(offset);
+                return -1;
+            }
+
+            String hash = BlockHelper.hashBlock(decode(payload.array()));
+            writeIndexEntry(size, segment, (int) offset, length, hash);
+            addEntry(segment, (int) offset, length, hash);
+            offset += RECORD_HEADER_SIZE + length;
+        }
+
+        return offset;
+    }
+
+    /*
+     * Writes an index entry for the block at the given index to the index
+     * file.
+     */
+    private void writeIndexEntry(final int index,
+                                 final int segment,
+                                 final int offset,
+                                 final int length,
+                                 final String hash) throws IOException {
+
+        ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+        entry.putInt(segment);
+        entry.putInt(offset);
+        entry.putInt(length);
+        entry.put(HashHelper.fromHex(hash));
+        entry.flip();
+
+        writeFully(indexChannel, entry, INDEX_HEADER_SIZE + (long) index * INDEX_ENTRY_SIZE);
+    }
+
+    /*
+     * Adds an entry to the in-memory index and publishes it.
+     */
+    private void addEntry(final int segment, final int offset, final int length, final String hash) {
+        int index = size;
+        if (index == positions.length) {
+            int capacity = positions.length * 2;
+            positions = Arrays.copyOf(positions, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            hashes = Arrays.copyOf(hashes, capacity);
+        }
+
+        positions[index] = (long) segment << 32 | (offset & 0xFFFFFFFFL);
+        lengths[index] = length;
+        hashes[index] = hash;
+        size = index + 1;
+    }
+
+    /*
+     * Returns the numbers of all segment files in the store, in ascending
+     * order.
+     */
+    private List<Integer> listSegments() throws IOException {
+        List<Integer> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "segment-*.log")) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                segments.add(Integer.valueOf(name.substring(8, name.length() - 4)));
+            }
+        }
+
+        Collections.sort(segments);
+        return segments;
+    }
+
+    /*
+     * Returns an open channel for the given segment. The channel is created,
+     * along with the segment file, if needed.
+     */
+    private FileChannel getChannel(final int segment) throws IOException {
+        FileChannel channel = channels.get(segment);
+        if (channel != null)
+            return channel;
+
+        synchronized (channels) {
+            channel = channels.get(segment);
+            if (channel == null) {
+                channel = FileChannel.open(segmentPath(segment),
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.READ,
+                        StandardOpenOption.WRITE);
+                channels.put(segment, channel);
+            }
+
+            return channel;
+        }
+    }
+
+    /*
+     * Returns a read-only memory mapping of an entire, sealed, segment.
+     */
+    private MappedByteBuffer getMappedSegment(final int segment) throws IOException {
+        MappedByteBuffer buffer = mappedSegments.get(segment);
+        if (buffer != null)
+            return buffer;
+
+        FileChannel channel = getChannel(segment);
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        MappedByteBuffer existing = mappedSegments.putIfAbsent(segment, buffer);
+        return existing != null ? existing : buffer;
+    }
+
+    private Path segmentPath(final int segment) {
+        return directory.resolve(String.format(SEGMENT_FILE, segment));
+    }
+
+    private void checkIndex(final int index) {
+        if (index < 0 || index >= size)
+            throw new IllegalArgumentException("Invalid block index: " + index);
+    }
+
+    private static byte[] encode(final Block block) {
+        return BinaryCodec.encodeBlock(block);
+    }
+
+    private static Block decode(final byte[] payload) {
+        return BinaryCodec.decodeBlock(payload);
+    }
+
+    private static void readFully(final FileChannel channel,
+                                  final ByteBuffer buffer,
+                                  final long position) throws IOException {
+
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            int count = channel.read(buffer, offset);
+            if (count < 0)
+                throw new IOException("Unexpected end of file");
+            offset += count;
+        }
+    }
+
+    private static void writeFully(final FileChannel channel,
+                                   final ByteBuffer buffer,
+                                   final long position) throws IOException {
+
+        long offset = position;
+        while (buffer.hasRemaining())
+            offset += channel.write(buffer, offset);
+    }
+
+}
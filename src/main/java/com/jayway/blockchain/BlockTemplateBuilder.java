@@ -0,0 +1,202 @@
+package com.jayway.blockchain;
+
+import java.lang.IllegalArgumentException;
+import java.lang.Integer;
+import java.lang.Long;
+import java.lang.String;
+import java.lang.System;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class picks the transactions to include in the next block. The pending
+ * transactions are kept ordered by priority as they enter and leave the
+ * mempool, so building a template only takes the top of the order, until the
+ * block is full. A block is full when it holds the max number of transactions
+ * or when the next transaction would take it past the max number of bytes,
+ * as measured in the {@link BinaryCodec} format. A single transaction that is
+ * too big on its own gets a block of its own, rather than being stuck in the
+ * mempool forever.
+ * <p>
+ * The caps can be tuned through the following system properties:
+ * <pre>
+ *     blockchain.block.maxTransactions (default 10000)
+ *     blockchain.block.maxBytes        (default 1048576)
+ * </pre>
+ */
+public class BlockTemplateBuilder implements Mempool.Listener {
+
+    /**
+     * Calculates the priority of a pending transaction. Transactions with
+     * higher priorities are picked first.
+     */
+    public interface Priority {
+        long of(final Transaction transaction, final long arrival);
+    }
+
+    /**
+     * Picks the transactions that have been pending the longest first.
+     */
+    public static final Priority OLDEST_FIRST = (transaction, arrival) -> -arrival;
+
+    /**
+     * Picks the transactions that were created the earliest first, no matter
+     * when they reached us.
+     */
+    public static final Priority EARLIEST_CREATED_FIRST = (transaction, arrival) -> -transaction.timestamp;
+
+    private static final int DEFAULT_MAX_TRANSACTIONS =
+            Integer.getInteger("blockchain.block.maxTransactions", 10_000);
+    private static final int DEFAULT_MAX_BYTES =
+            Integer.getInteger("blockchain.block.maxBytes", 1_048_576);
+
+    private static final class Candidate implements Comparable<Candidate> {
+        final Transaction transaction;
+        final long priority;
+        final long sequence;
+        final int size;
+
+        Candidate(final Transaction transaction, final long priority, final long sequence) {
+            this.transaction = transaction;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.size = BinaryCodec.sizeOf(transaction);
+        }
+
+        // Equal priorities are picked in the order they were heard of.
+        @Override
+        public int compareTo(final Candidate other) {
+            int result = Long.compare(other.priority, priority);
+            return result != 0 ? result : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private final Mempool mempool;
+    private final Priority priority;
+    private final int maxTransactions;
+    private final int maxBytes;
+    private final ConcurrentSkipListSet<Candidate> ordered;
+    private final ConcurrentHashMap<String, Candidate> candidates;
+    private final AtomicLong sequence;
+
+    /**
+     * Prepares a new template builder for the given mempool, picking the
+     * oldest transactions first, with the default caps.
+     *
+     * @param mempool The pool of pending transactions.
+     */
+    public BlockTemplateBuilder(final Mempool mempool) {
+        this(mempool, OLDEST_FIRST, DEFAULT_MAX_TRANSACTIONS, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Prepares a new template builder for the given mempool. The builder
+     * starts listening to the mempool right away.
+     *
+     * @param mempool         The pool of pending transactions.
+     * @param priority        The order to pick transactions in.
+     * @param maxTransactions The max number of transactions in a block.
+     * @param maxBytes        The max number of bytes the transactions in a
+     *                        block may take up.
+     * @throws IllegalArgumentException if any cap isn't positive.
+     */
+    public BlockTemplateBuilder(final Mempool mempool,
+                                final Priority priority,
+                                final int maxTransactions,
+                                final int maxBytes) throws IllegalArgumentException {
+
+        if (maxTransactions < 1)
+            throw new IllegalArgumentException("Invalid max transactions: " + maxTransactions);
+
+        if (maxBytes < 1)
+            throw new IllegalArgumentException("Invalid max bytes: " + maxBytes);
+
+        this.mempool = mempool;
+        this.priority = priority;
+        this.maxTransactions = maxTransactions;
+        this.maxBytes = maxBytes;
+        this.ordered = new ConcurrentSkipListSet<>();
+        this.candidates = new ConcurrentHashMap<>();
+        this.sequence = new AtomicLong(0);
+
+        mempool.addListener(this);
+    }
+
+    @Override
+    public void onAdded(final Transaction transaction, final long arrival) {
+        Candidate candidate = new Candidate(transaction,
+                priority.of(transaction, arrival),
+                sequence.getAndIncrement());
+        Candidate previous = candidates.put(transaction.hash, candidate);
+        if (previous != null)
+            ordered.remove(previous);
+
+        ordered.add(candidate);
+    }
+
+    @Override
+    public void onRemoved(final Transaction transaction) {
+        Candidate candidate = candidates.remove(transaction.hash);
+        if (candidate != null)
+            ordered.remove(candidate);
+    }
+
+    /**
+     * Picks the transactions for the next block, in priority order.
+     *
+     * @return The transactions. May be empty but never null.
+     */
+    public List<Transaction> build() {
+        List<Transaction> result = pick();
+
+        // Racing events may, very rarely, have made us lose track of pending
+        // transactions. Catch up with the mempool rather than letting them
+        // starve.
+        if (result.isEmpty() && !mempool.isEmpty()) {
+            long now = System.currentTimeMillis();
+            for (Transaction transaction : mempool.snapshot())
+                if (!candidates.containsKey(transaction.hash))
+                    onAdded(transaction, now);
+
+            result = pick();
+        }
+
+        return result;
+    }
+
+    /*
+     * Takes transactions from the top of the order until the block is full.
+     */
+    private List<Transaction> pick() {
+        List<Transaction> result = new ArrayList<>();
+        int bytes = 0;
+
+        Iterator<Candidate> iterator = ordered.iterator();
+        while (iterator.hasNext() && result.size() < maxTransactions) {
+            Candidate candidate = iterator.next();
+
+            // The mempool may have let go of the transaction before telling
+            // us it took it in. Forgive and forget...
+            if (!mempool.contains(candidate.transaction.hash)) {
+                candidates.remove(candidate.transaction.hash, candidate);
+                ordered.remove(candidate);
+                continue;
+            }
+
+            if (bytes + candidate.size > maxBytes && !result.isEmpty())
+                break;
+
+            result.add(candidate.transaction);
+            bytes += candidate.size;
+        }
+
+        return result;
+    }
+
+}
@@ -0,0 +1,227 @@
+package com.jayway.blockchain;
+
+import java.lang.String;
+import java.lang.System;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+/**
+ * This class validates batches of candidate blocks, e.g. as received during
+ * a synchronization with a peer. The validation is split in two phases:
+ * <ol>
+ *     <li>The contents of each block are verified on their own. This is the
+ *     expensive part, as each block is hashed, its proof-of-work checked
+ *     against the target in its header and the signatures of its
+ *     transactions verified, but since no block depends on any other the
+ *     blocks are verified in parallel on a fork/join pool.</li>
+ *     <li>The links between the blocks are verified in order, including that
+ *     each block has the target its predecessors call for and a timestamp
+ *     that keeps the retargeting honest. This is cheap as the hashes are
+ *     already cached on the blocks by the first phase.</li>
+ * </ol>
+ * Both phases stop at the first invalid block.
+ */
+public class BlockValidator {
+
+    /**
+     * The max number of milliseconds a block may be timestamped ahead of our
+     * own clock.
+     */
+    public static final long MAX_CLOCK_DRIFT = 60_000L;
+
+    // Don't bother forking for batches smaller than this.
+    private static final int SEQUENTIAL_THRESHOLD = 8;
+
+    private final class ContentTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Block[] candidates;
+        private final int from;
+        private final int to;
+        private final AtomicInteger invalid;
+
+        ContentTask(final Block[] candidates, final int from, final int to, final AtomicInteger invalid) {
+            this.candidates = candidates;
+            this.from = from;
+            this.to = to;
+            this.invalid = invalid;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SEQUENTIAL_THRESHOLD) {
+                for (int i = from; i < to && invalid.get() < 0; i++)
+                    if (!verifyContent(candidates[i]))
+                        invalid.compareAndSet(-1, i);
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ContentTask(candidates, from, middle, invalid),
+                        new ContentTask(candidates, middle, to, invalid));
+            }
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private final SignatureVerifier signatures;
+
+    /**
+     * Prepares a new block validator working on the common fork/join pool,
+     * with a signature verifier of its own.
+     */
+    public BlockValidator() {
+        this(ForkJoinPool.commonPool(), new SignatureVerifier());
+    }
+
+    /**
+     * Prepares a new block validator working on the given fork/join pool.
+     *
+     * @param pool       The pool to verify blocks on.
+     * @param signatures The verifier to verify transactions with. Sharing
+     *                   the verifier with the mempool spares verifying the
+     *                   same transactions twice.
+     */
+    public BlockValidator(final ForkJoinPool pool, final SignatureVerifier signatures) {
+        this.pool = pool;
+        this.signatures = signatures;
+    }
+
+    /**
+     * Verifies the contents of each candidate block on its own: the block
+     * must be present, all its transactions must be well formed, unique and
+     * properly signed, its Merkle root must match its transactions and its
+     * hash must meet the proof-of-work target in its header. The hashes are
+     * cached on the blocks as a side effect.
+     *
+     * @param candidates The blocks to verify.
+     * @return The position of an invalid block in the candidates array, or
+     * -1 if all blocks are valid.
+     */
+    public int verifyContents(final Block[] candidates) {
+        AtomicInteger invalid = new AtomicInteger(-1);
+        ContentTask task = new ContentTask(candidates, 0, candidates.length, invalid);
+
+        if (candidates.length <= SEQUENTIAL_THRESHOLD)
+            task.compute();
+        else
+            pool.invoke(task);
+
+        return invalid.get();
+    }
+
+    /**
+     * Verifies that the candidate blocks form a chain on top of the given
+     * reference block, as of now. See
+     * {@link #verifyLinks(Block, Block[], IntFunction, long)}.
+     *
+     * @param reference  The block to build on top of. May be null.
+     * @param candidates The blocks to verify, with verified contents.
+     * @param blockAt    Looks up the block with a given index at or before
+     *                   the reference block.
+     * @return The position of the first block that doesn't link to its
+     * predecessor, or -1 if all blocks are properly linked.
+     */
+    public int verifyLinks(final Block reference,
+                           final Block[] candidates,
+                           final IntFunction<Block> blockAt) {
+
+        return verifyLinks(reference, candidates, blockAt, System.currentTimeMillis());
+    }
+
+    /**
+     * Verifies that the candidate blocks form a chain on top of the given
+     * reference block. Each block must have an index one greater than its
+     * predecessor's, refer to its predecessor's hash, be timestamped later
+     * than its predecessor and have the target
+     * {@link DifficultyHelper#nextTarget(Block, IntFunction)} calls for. If
+     * there is no reference block, the first candidate must be a genesis
+     * block, with index 0 and no previous hash. No block may be timestamped
+     * more than {@value #MAX_CLOCK_DRIFT} milliseconds after the given time.
+     * <p>
+     * The timestamps drive the retargeting, so without these rules a miner
+     * could stretch them and make the target as easy as it gets.
+     *
+     * @param reference  The block to build on top of. May be null.
+     * @param candidates The blocks to verify, with verified contents.
+     * @param blockAt    Looks up the block with a given index at or before
+     *                   the reference block.
+     * @param now        The current time, as a Unix epoch millisecond
+     *                   timestamp.
+     * @return The position of the first block that doesn't link to its
+     * predecessor, or -1 if all blocks are properly linked.
+     */
+    public int verifyLinks(final Block reference,
+                           final Block[] candidates,
+                           final IntFunction<Block> blockAt,
+                           final long now) {
+
+        int first = reference == null ? 0 : reference.index + 1;
+        IntFunction<Block> lookup = index -> index >= first ?
+                candidates[index - first] :
+                blockAt.apply(index);
+
+        Block previous = reference;
+        for (int i = 0; i < candidates.length; i++) {
+            Block candidate = candidates[i];
+            if (previous == null) {
+                if (candidate.index != 0 || candidate.previousHashString != null)
+                    return i;
+            } else if (candidate.index != previous.index + 1 ||
+                    candidate.timestamp <= previous.timestamp ||
+                    !BlockHelper.hashBlock(previous).equals(candidate.previousHashString)) {
+                return i;
+            }
+
+            if (candidate.timestamp > now + MAX_CLOCK_DRIFT)
+                return i;
+
+            // The candidate links properly, so the lookup can trust the
+            // indices of all candidates up to and including the previous one.
+            if (!DifficultyHelper.nextTarget(previous, lookup).equals(candidate.target))
+                return i;
+
+            previous = candidate;
+        }
+
+        return -1;
+    }
+
+    /*
+     * Verifies a single block's content with regard to its transactions,
+     * Merkle root and nonce. The cheap checks go first, so that a block that
+     * doesn't even meet its target doesn't cost any signature verifications.
+     */
+    private boolean verifyContent(final Block candidate) {
+        if (candidate == null || candidate.transactions == null)
+            return false;
+
+        // The Merkle tree pairs the last node of an odd level with itself, so
+        // repeating the trailing transactions of a block gives the same root,
+        // and the same block hash, as the real block. Only the real block,
+        // without repetitions, is valid.
+        Set<String> hashes = new HashSet<>();
+        for (Transaction transaction : candidate.transactions)
+            if (!TransactionHelper.isWellFormed(transaction) || !hashes.add(transaction.hash))
+                return false;
+
+        if (!MerkleHelper.root(candidate.transactions).equals(candidate.merkleRoot))
+            return false;
+
+        if (!DifficultyHelper.isWellFormed(candidate.target))
+            return false;
+
+        if (!BlockHelper.meetsTarget(candidate, DifficultyHelper.parseTarget(candidate.target)))
+            return false;
+
+        // NOTE! that we only verify that each transaction is signed by its
+        // sender. There's no notion of balances, so there's nothing to spend
+        // twice.
+        return signatures.verifyAll(candidate.transactions);
+    }
+
+}
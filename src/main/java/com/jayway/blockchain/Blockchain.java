@@ -2,7 +2,10 @@ package com.jayway.blockchain;
 
 import java.lang.IllegalArgumentException;
 import java.lang.IllegalStateException;
+import java.lang.Integer;
 import java.lang.InterruptedException;
+import java.lang.Math;
+import java.lang.Runtime;
 import java.lang.String;
 import java.lang.StringBuilder;
 import java.lang.System;
@@ -13,16 +16,19 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.TimeUnit;
 
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
@@ -30,67 +36,226 @@ import java.util.concurrent.atomic.AtomicInteger;
  * transactions and generating new blocks.
  */
 public class Blockchain {
-    private static final String DIFFICULTY = "000";
+    private static final int DEFAULT_MEMPOOL_CAPACITY = 500_000;
+    private static final long DEFAULT_MEMPOOL_MAX_AGE = TimeUnit.HOURS.toMillis(24);
+
+    private static final Metrics.Counter BLOCKS_MINED = Metrics.counter(
+            "blockchain_mining_blocks_total",
+            "Number of blocks mined and appended by this node");
+    private static final Metrics.Counter BLOCKS_DISCARDED = Metrics.counter(
+            "blockchain_mining_discarded_total",
+            "Number of mined blocks discarded since the blockchain changed meanwhile");
+    private static final Metrics.Counter MINING_CANCELLATIONS = Metrics.counter(
+            "blockchain_mining_cancellations_total",
+            "Number of nonce searches cancelled since the tip of the blockchain changed");
+    private static final Metrics.Counter MINING_RESTARTS = Metrics.counter(
+            "blockchain_mining_restarts_total",
+            "Number of mining jobs started on a new tip after the previous job went stale");
+    private static final Metrics.Histogram BLOCK_TIME = Metrics.histogram(
+            "blockchain_mining_block_seconds",
+            "Time to find a nonce for a block",
+            new double[]{0.1, 0.5, 1, 2.5, 5, 10, 30, 60, 120, 300, 600});
+    private static final Metrics.Histogram VALIDATION_TIME = Metrics.histogram(
+            "blockchain_chain_validation_seconds",
+            "Time to verify the contents of a batch of candidate blocks",
+            Metrics.LATENCY_BUCKETS);
+    private static final Metrics.Histogram APPEND_TIME = Metrics.histogram(
+            "blockchain_chain_append_seconds",
+            "Time to append a batch of candidate blocks, including validation",
+            Metrics.LATENCY_BUCKETS);
+    private static final Metrics.Counter BLOCKS_APPENDED = Metrics.counter(
+            "blockchain_chain_appended_total",
+            "Number of blocks received from peers and appended");
+    private static final Metrics.Counter BATCHES_REJECTED = Metrics.counter(
+            "blockchain_chain_rejected_total",
+            "Number of batches of candidate blocks rejected");
 
     public interface OnBlockMinedListener {
         void onBlockMined(final Block block);
     }
 
-    private final List<Block> blocks;
-    private final List<Transaction> transactions;
+    private final ChainStore blocks;
+    private final Map<String, Integer> blockIndices;
+    private final Mempool transactions;
+    private final BlockTemplateBuilder templateBuilder;
     private final ExecutorService workerService;
-    private final AtomicInteger nextBlockIndex;
-
-    private Future<Block> miningTask;
+    private final MiningEngine miningEngine;
+    private final SignatureVerifier signatures;
+    private final BlockValidator validator;
+    private final Object appendLock;
+    private final AtomicLong tipEpoch;
+    private final AtomicBoolean mining;
 
 
     /**
      * Prepares a new instance of a blockchain. Each instance will have its
-     * genesis block generated and populated.
+     * genesis block generated and populated. The mining will be spread over
+     * as many worker threads as there are available processors.
      */
     public Blockchain() {
-        blocks = new ArrayList<>();
-        transactions = Collections.synchronizedList(new ArrayList<>());
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Prepares a new instance of a blockchain with a given number of mining
+     * worker threads.
+     *
+     * @param miningThreads The number of threads to search for nonces with.
+     * @throws IllegalArgumentException if the thread count is less than one.
+     */
+    public Blockchain(final int miningThreads) throws IllegalArgumentException {
+        this(miningThreads, new Mempool(DEFAULT_MEMPOOL_CAPACITY, DEFAULT_MEMPOOL_MAX_AGE));
+    }
+
+    /**
+     * Prepares a new instance of a blockchain with a given number of mining
+     * worker threads and a given pending transactions pool.
+     *
+     * @param miningThreads The number of threads to search for nonces with.
+     * @param mempool       The pool to keep pending transactions in.
+     * @throws IllegalArgumentException if the thread count is less than one.
+     */
+    public Blockchain(final int miningThreads, final Mempool mempool) throws IllegalArgumentException {
+        this(miningThreads, mempool, null);
+    }
+
+    /**
+     * Prepares a new instance of a blockchain backed by a persistent block
+     * store. Any blocks already in the store will be part of the blockchain.
+     * Only the block hashes are read into memory, the blocks themselves are
+     * read on demand.
+     *
+     * @param store The block store to persist the blocks in.
+     */
+    public Blockchain(final BlockStore store) {
+        this(Runtime.getRuntime().availableProcessors(),
+                new Mempool(DEFAULT_MEMPOOL_CAPACITY, DEFAULT_MEMPOOL_MAX_AGE),
+                store);
+    }
+
+    /**
+     * Prepares a new instance of a blockchain with a given number of mining
+     * worker threads, a given pending transactions pool and an optional
+     * persistent block store.
+     *
+     * @param miningThreads The number of threads to search for nonces with.
+     * @param mempool       The pool to keep pending transactions in.
+     * @param store         The block store to persist the blocks in. May be
+     *                      null, in which case the blocks are only kept in
+     *                      memory.
+     * @throws IllegalArgumentException if the thread count is less than one.
+     */
+    public Blockchain(final int miningThreads,
+                      final Mempool mempool,
+                      final BlockStore store) throws IllegalArgumentException {
+
+        blocks = new ChainStore(store);
+        blockIndices = new ConcurrentHashMap<>();
+        transactions = mempool;
+        templateBuilder = new BlockTemplateBuilder(mempool);
         workerService = Executors.newSingleThreadExecutor();
-        nextBlockIndex = new AtomicInteger(0);
+        miningEngine = new MiningEngine(miningThreads);
+        signatures = new SignatureVerifier();
+        validator = new BlockValidator(ForkJoinPool.commonPool(), signatures);
+        appendLock = new Object();
+        tipEpoch = new AtomicLong(0);
+        mining = new AtomicBoolean(false);
+
+        if (store != null)
+            for (int i = 0, size = store.size(); i < size; i++)
+                blockIndices.put(store.getHash(i), i);
+
+        Metrics.gauge("blockchain_chain_height",
+                "Number of blocks in the blockchain",
+                blocks::size);
+        Metrics.gauge("blockchain_mempool_size",
+                "Number of pending transactions",
+                transactions::size);
+        Metrics.gauge("blockchain_mining_hash_rate",
+                "Hashes per second during the last completed nonce search",
+                miningEngine::getHashRate);
+        for (int i = 0; i < miningThreads; i++) {
+            int worker = i;
+            Metrics.gauge("blockchain_mining_worker_hash_rate",
+                    "Hashes per second of each mining worker during the last completed nonce search",
+                    () -> miningEngine.getHashRates()[worker],
+                    "worker", Integer.toString(worker));
+        }
     }
 
 
     /**
      * Stores a new transaction temporarilly in an internal cache if it isn't
-     * already cached.
+     * already cached, its signature is valid and the cache isn't full.
      *
-     * @param from The sender of the new transaction.
-     * @param to   The receiver of the new transaction.
-     * @param data The data to transact.
-     * @throws IllegalArgumentException if any of the required data is null
-     *                                  or empty.
+     * @param from      The public key of the sender of the new transaction.
+     * @param to        The receiver of the new transaction.
+     * @param data      The data to transact.
+     * @param timestamp The time of the transaction.
+     * @param signature The sender's signature of the transaction hash.
+     * @return Boolean true if the transaction was cached, else false.
+     * @throws IllegalArgumentException if any of the required data is null,
+     *                                  empty or malformed.
      */
     public boolean record(final String from,
                           final String to,
                           final String data,
-                          final long timestamp) throws IllegalArgumentException {
+                          final long timestamp,
+                          final String signature) throws IllegalArgumentException {
 
-        Transaction transaction = TransactionHelper.create(from, to, data, timestamp);
-        for (Transaction t : transactions)
-            if (transaction.hash.equals(t.hash))
-                return false;
+        return record(TransactionHelper.create(from, to, data, timestamp, signature));
+    }
 
-        transactions.add(transaction);
-        return true;
+    /**
+     * Stores an already created transaction temporarilly in an internal cache
+     * if it isn't already cached, its signature is valid and the cache isn't
+     * full.
+     *
+     * @param transaction The transaction, as created by
+     *                    {@link TransactionHelper#create(String, String, String, long, String)}.
+     * @return Boolean true if the transaction was cached, else false.
+     */
+    public boolean record(final Transaction transaction) {
+        return signatures.verify(transaction) && transactions.add(transaction);
     }
 
     /**
-     * Tries to mine the next block on the blockchain by finding the next nonce
-     * that fulfills the difficulty constraints. This method will enqueue a new
-     * job to the worker thread.
+     * Stores a batch of already created transactions temporarilly in an
+     * internal cache. The signatures of the whole batch are verified in
+     * parallel first, and only the transactions with valid signatures that
+     * aren't already cached are stored, as long as the cache isn't full.
+     * The calling thread is blocked until the whole batch is verified, so
+     * this must not be called on an event loop thread.
+     *
+     * @param batch The transactions, as created by
+     *              {@link TransactionHelper#create(String, String, String, long, String)}.
+     * @return The transactions that were cached. May be empty but never null.
+     */
+    public List<Transaction> record(final List<Transaction> batch) {
+        boolean[] valid = signatures.verify(batch);
+        List<Transaction> result = new ArrayList<>(batch.size());
+        for (int i = 0; i < valid.length; i++)
+            if (valid[i] && transactions.add(batch.get(i)))
+                result.add(batch.get(i));
+
+        return result;
+    }
+
+    /**
+     * Starts mining blocks on top of the blockchain by finding nonces that
+     * fulfill the difficulty constraints. This method will enqueue a new
+     * mining job to the worker thread, unless one is already running.
      * <p>
-     * Since we're running on a worker thread, we'll take a snapshot of the
-     * transaction cache and work with that. More transactions may be added
-     * while we're mining, those won't be included in this block, however,
-     * only the snapshot will.
+     * The job keeps mining blocks for as long as there are pending
+     * transactions. Each block is built on top of the current tip of the
+     * blockchain from the pending transactions with the highest priority, as
+     * many as fit in a block (see {@link BlockTemplateBuilder}). More
+     * transactions may be added while we're mining, those will be included in
+     * a later block. If the tip changes while we're mining, e.g. since a peer
+     * beat us to it, the stale block is dropped within milliseconds and a new
+     * block is built from the new tip and whatever transactions remain.
      *
-     * @param listener Optional task to execute once a new block is mined.
+     * @param listener Optional task to execute each time a new block is mined.
      */
     public void mine(final OnBlockMinedListener listener) {
         // No transactions to mine.
@@ -100,104 +265,216 @@ public class Blockchain {
         }
 
         // Already mining
-        if (miningTask != null && !miningTask.isDone()) {
+        if (!mining.compareAndSet(false, true)) {
             System.out.printf("Denied mining request: Already mining\n");
             return;
         }
 
-        miningTask = workerService.submit(() -> {
-            if (transactions.isEmpty()) {
-                System.out.printf("Abort mining: No transactions to mine\n");
-                return null;
+        workerService.submit(() -> {
+            runMiningJobs(listener);
+            return null;
+        });
+    }
+
+    /*
+     * Mines blocks until there are no more pending transactions that can be
+     * included in a block. Runs on the worker thread.
+     */
+    private void runMiningJobs(final OnBlockMinedListener listener) throws InterruptedException {
+        boolean starved = false;
+        boolean stale = false;
+        do {
+            try {
+                while (!transactions.isEmpty()) {
+                    // The epoch is read before the template and the tip, so
+                    // that the job is considered stale if the tip changes in
+                    // between.
+                    long jobEpoch = tipEpoch.get();
+                    List<Transaction> content = buildTemplate();
+
+                    // The pending transactions may all be on their way out
+                    // of the mempool. Don't spin on them, the next mining
+                    // request will have another look.
+                    if (content.isEmpty()) {
+                        System.out.printf("Stopped mining: No transactions to include\n");
+                        starved = true;
+                        break;
+                    }
+
+                    // Only a job that follows a stale one is a restart,
+                    // whether its search was cancelled or its block was
+                    // discarded.
+                    if (stale)
+                        MINING_RESTARTS.increment();
+
+                    Block newBlock = mineBlock(jobEpoch, content);
+                    stale = newBlock == null;
+
+                    // Execute any provided post-mining task.
+                    if (newBlock != null && listener != null)
+                        listener.onBlockMined(newBlock);
+                }
+            } finally {
+                mining.set(false);
             }
 
-            // Collect block header details.
-            int index = nextBlockIndex.getAndIncrement();
-            Date timestamp = new Date();
-            String referenceHash = blocks.isEmpty() ? null : BlockHelper.hashBlock(blocks.get(index - 1));
-            List<Transaction> content = new ArrayList<>(transactions);
-
-            // Build the static part of the block header.
-            String rawHeader = BlockHelper.buildRawBlockHeader(
-                    index,
-                    timestamp.getTime(),
-                    referenceHash,
-                    content);
-
-            long nonce = 0;
-            String hashString = "";
-            System.out.printf("Started mining at %s UTC\n", timestamp.toString());
-
-            // Start looking for a nonce that will produce a hash with the
-            // expected amount of leading zeros.
-            while (!hashString.startsWith(DIFFICULTY))
-                hashString = BlockHelper.hashBlock(++nonce, rawHeader);
-
-            System.out.printf("Found new block!\n\tDuration: %d\n\tIterations: %d\n",
-                    System.currentTimeMillis() - timestamp.getTime(),
-                    nonce);
-
-            // We have a new block! Remove the included transactions from the
-            // cache and append the new block to our blockchain.
-            transactions.removeAll(content);
-            Block newBlock = new Block(index,
-                    nonce,
-                    timestamp.getTime(),
-                    referenceHash,
-                    content);
-
-            blocks.add(newBlock);
-            miningTask = null;
-
-            // Execute any provided post-mining task.
-            if (listener != null)
-                listener.onBlockMined(newBlock);
-
-            return newBlock;
-        });
+            // Transactions may have arrived after we last looked, but before
+            // we let go of the mining flag, in which case nobody else will
+            // start mining them.
+        } while (!starved && !transactions.isEmpty() && mining.compareAndSet(false, true));
     }
 
-    /**
-     * Stops any ongoing mining.
+    /*
+     * Picks the transactions for the next block. Any picked transaction that
+     * isn't valid could never be included in a block, so it's dropped from
+     * the mempool rather than picked again and again. The transactions were
+     * verified on their way into the mempool, so this is mostly cache hits.
      */
-    public void stopMining() {
-        if (miningTask != null && !miningTask.isDone()) {
-            miningTask.cancel(true);
-            miningTask = null;
+    private List<Transaction> buildTemplate() {
+        while (true) {
+            List<Transaction> content = templateBuilder.build();
+            List<Transaction> invalid = new ArrayList<>();
+            for (Transaction transaction : content)
+                if (!signatures.verify(transaction))
+                    invalid.add(transaction);
+
+            if (invalid.isEmpty())
+                return content;
+
+            // Dropping the invalid transactions makes room for others, pick
+            // again.
+            System.out.printf("Dropped %d pending transactions: Malformed or improperly signed\n", invalid.size());
+            transactions.removeAll(invalid);
         }
     }
 
+    /*
+     * Mines one block with the given content on top of the current tip.
+     * Returns null if the tip changed since the given epoch, before the
+     * block could be appended.
+     */
+    private Block mineBlock(final long jobEpoch, final List<Transaction> content) throws InterruptedException {
+        // Collect block header details.
+        ChainStore.Snapshot snapshot = blocks.snapshot();
+        Block tip = snapshot.last();
+        int index = tip == null ? 0 : tip.index + 1;
+        // A block must be timestamped later than its predecessor, even if
+        // our clock is behind the clock of whoever mined the tip.
+        Date timestamp = new Date(tip == null ?
+                System.currentTimeMillis() :
+                Math.max(System.currentTimeMillis(), tip.timestamp + 1));
+        String referenceHash = tip == null ? null : BlockHelper.hashBlock(tip);
+        String target = DifficultyHelper.nextTarget(tip, snapshot::get);
+        String merkleRoot = MerkleHelper.root(content);
+
+        // Build the static part of the block header.
+        String rawHeader = BlockHelper.buildRawBlockHeader(
+                index,
+                timestamp.getTime(),
+                referenceHash,
+                merkleRoot,
+                target);
+
+        System.out.printf("Started mining block %d at %s UTC on %d threads\n",
+                index,
+                timestamp.toString(),
+                miningEngine.getWorkerCount());
+
+        // Start looking for a nonce that will produce a hash that meets the
+        // target, for as long as the tip stays the same.
+        MiningEngine.Result result = miningEngine.search(rawHeader,
+                DifficultyHelper.parseTarget(target),
+                () -> tipEpoch.get() != jobEpoch);
+
+        if (result == null) {
+            System.out.printf("Restarted mining: The blockchain has changed\n");
+            MINING_CANCELLATIONS.increment();
+            return null;
+        }
+
+        BLOCK_TIME.observe(result.duration / 1000.0);
+        System.out.printf("Found new block!\n\tDuration: %d\n\tIterations: %d\n\tHash rate: %.0f H/s\n",
+                result.duration,
+                result.iterations,
+                result.duration > 0 ? result.iterations * 1000.0 / result.duration : 0.0);
+
+        // We have a new block! Append it to our blockchain, unless some
+        // other block has been appended since the search ended, and remove
+        // the included transactions from the cache.
+        Block newBlock = BlockHelper.withHash(new Block(index,
+                result.nonce,
+                timestamp.getTime(),
+                referenceHash,
+                merkleRoot,
+                target,
+                content), result.hash);
+
+        synchronized (appendLock) {
+            if (tipEpoch.get() != jobEpoch) {
+                System.out.printf("Discarded mined block: The blockchain has changed\n");
+                BLOCKS_DISCARDED.increment();
+                return null;
+            }
+
+            blocks.append(Collections.singletonList(newBlock));
+            blockIndices.put(result.hash, index);
+            tipEpoch.incrementAndGet();
+        }
+
+        BLOCKS_MINED.increment();
+        transactions.removeAll(content);
+        return newBlock;
+    }
+
     /**
      * Returns an unmodifiable version of the entire blockchain as it looks
-     * right now.
+     * right now. The returned snapshot is immutable and won't reflect any
+     * blocks appended later on.
      */
     public List<Block> getBlocks() {
-        return Collections.unmodifiableList(
-                new ArrayList<Block>(blocks));
+        return blocks.snapshot();
     }
 
     /**
      * Returns an unmodifiable part of the entire blockchain as it looks
      * right now. The "part" will be the blocks [index..size] (exclusive end).
+     * Since block indices are dense, the first block is looked up directly.
      *
      * @param fromIndex The index of the first block to return.
      * @return A list of blocks. May be empty but never null.
      */
     public List<Block> getBlocks(final int fromIndex) {
-        if (!blocks.isEmpty())
-            for (int i = 0, size = blocks.size(); i < size; i++)
-                if (blocks.get(i).index == fromIndex)
-                    return Collections.unmodifiableList(
-                            blocks.subList(i, size));
+        ChainStore.Snapshot snapshot = blocks.snapshot();
+        if (fromIndex < 0 || fromIndex >= snapshot.size())
+            return Collections.emptyList();
 
-        return Collections.unmodifiableList(
-                Collections.emptyList());
+        return snapshot.subList(fromIndex, snapshot.size());
+    }
+
+    /**
+     * Returns an unmodifiable part of the entire blockchain as it looks
+     * right now. The "part" will be the blocks [fromIndex..toIndex) or, if
+     * the chain is shorter, [fromIndex..size).
+     *
+     * @param fromIndex The index of the first block to return.
+     * @param toIndex   The index after the last block to return.
+     * @return A list of blocks. May be empty but never null.
+     */
+    public List<Block> getBlocks(final int fromIndex, final int toIndex) {
+        ChainStore.Snapshot snapshot = blocks.snapshot();
+        int end = Math.min(toIndex, snapshot.size());
+        if (fromIndex < 0 || fromIndex >= end)
+            return Collections.emptyList();
+
+        return snapshot.subList(fromIndex, end);
     }
 
     /**
      * Appends the given blocks if and only if they are valid and intact. Upon
      * success the transactions provided by the new blocks will be removed from
-     * our pending transactions cache.
+     * our pending transactions cache. The calling thread is blocked until the
+     * blocks are validated, so this must not be called on an event loop
+     * thread.
      *
      * @param candidates The blocks to append to our blockchain.
      * @return Boolean true if the operation could be performed, else false.
@@ -206,75 +483,121 @@ public class Blockchain {
         if (candidates == null || candidates.length == 0)
             return true;
 
-        // Validate the integrity of the new block candidates and that they
-        // really continue where our blockchain ends. Don't add any blocks to
-        // our chain until we have validated the entire set of candidates.
-        Block lastBlock = blocks.get(blocks.size() - 1);
-        if (verifyIntegrity(lastBlock, candidates[0])) {
-            for (int i = 0, last = candidates.length - 1; i < last; i++)
-                if (!verifyIntegrity(candidates[i], candidates[i + 1]))
-                    return false;
-
-            // Everything seems legit. Update our blockchain and clean up the
-            // pending transactions accordingly.
-            blocks.addAll(Arrays.asList(candidates));
-            for (Block candidate : candidates)
-                for (Transaction transaction : candidate.transactions)
-                    transactions.remove(transaction);
+        long start = System.nanoTime();
+        // Validate the integrity of each of the new block candidates. This is
+        // the expensive part and it's done in parallel, without holding any
+        // locks. Don't add any blocks to our chain until we have validated
+        // the entire set of candidates.
+        int invalid = validator.verifyContents(candidates);
+        VALIDATION_TIME.observeSince(start);
+        if (invalid >= 0) {
+            System.out.printf("Rejected blocks: Candidate %d of %d is malformed or doesn't meet the target\n",
+                    invalid + 1, candidates.length);
+            BATCHES_REJECTED.increment();
+            return false;
+        }
+
+        // Validate that the candidates really continue where our blockchain
+        // ends. The link validation and the append happen under the same
+        // lock, so that no one else appends blocks in between.
+        synchronized (appendLock) {
+            ChainStore.Snapshot snapshot = blocks.snapshot();
+            Block lastBlock = snapshot.last();
+            int broken = validator.verifyLinks(lastBlock, candidates, snapshot::get);
+            if (broken >= 0) {
+                System.out.printf("Rejected blocks: Candidate %d of %d (index %d) doesn't link to index %d, has the wrong target or a bad timestamp\n",
+                        broken + 1, candidates.length, candidates[broken].index,
+                        broken > 0 ? candidates[broken - 1].index : lastBlock == null ? -1 : lastBlock.index);
+                BATCHES_REJECTED.increment();
+                return false;
+            }
+
+            // Everything seems legit. Update our blockchain and clean up
+            // the pending transactions accordingly.
+            blocks.append(Arrays.asList(candidates));
+            for (Block candidate : candidates) {
+                blockIndices.put(BlockHelper.hashBlock(candidate), candidate.index);
+                transactions.removeAll(candidate.transactions);
+            }
+
+            // Any ongoing mining is now building on a stale tip.
+            tipEpoch.incrementAndGet();
         }
 
+        BLOCKS_APPENDED.add(candidates.length);
+        APPEND_TIME.observeSince(start);
+
         // Yeay!!!
         return true;
     }
 
     /**
-     * Returns the index of the next expected block for this blockchain.
+     * Tests whether a block with the given hash exists in the blockchain.
      *
-     * @return The block index.
+     * @param hash The hash of the block.
+     * @return Boolean true if the block exists, else false.
      */
-    public int getNextBlockIndex() {
-        return nextBlockIndex.get();
+    public boolean containsBlock(final String hash) {
+        return hash != null && blockIndices.containsKey(hash);
     }
 
     /**
-     * Returns an unmodifiable version of the pending transactions list as it
-     * looks right now.
+     * Returns the block with the given hash.
+     *
+     * @param hash The hash of the block.
+     * @return The block or null if there is no block with the given hash.
      */
-    public List<Transaction> getTransactions() {
-        return Collections.unmodifiableList(
-                new ArrayList<Transaction>(transactions));
+    public Block getBlock(final String hash) {
+        Integer index = hash == null ? null : blockIndices.get(hash);
+        return index == null ? null : blocks.snapshot().get(index);
     }
 
-
-    /*
-     * Verifies the integrity of two neighbouring blocks with regard to their
-     * index, nonce and link. The index needs to be one more than the previous
-     * blocks index. The nonce needs to be such that when the block header is
-     * hashed the resulting hash string starts with the {@link #DIFFICULTY}
-     * pattern. Finally the previous hash link of the new block's header needs
-     * to be the same as the hash of our last block's header.
+    /**
+     * Returns the number of blocks in the blockchain.
+     *
+     * @return The height of the blockchain.
      */
-    private boolean verifyIntegrity(final Block reference, final Block candidate) {
-        // Validate content
-        if (reference == null || candidate == null)
-            return false;
-
-        // Validate index
-        if (candidate.index != reference.index + 1)
-            return false;
+    public int getHeight() {
+        return blocks.size();
+    }
 
-        // Validate nonce
-        if (!BlockHelper.hashBlock(candidate).startsWith(DIFFICULTY))
-            return false;
+    /**
+     * Returns the index of the next expected block for this blockchain. As
+     * block indices are dense this is the same as the height.
+     *
+     * @return The block index.
+     */
+    public int getNextBlockIndex() {
+        return blocks.size();
+    }
 
-        // Validate link
-        if (!BlockHelper.hashBlock(reference).equals(candidate.previousHashString))
-            return false;
+    /**
+     * Tests whether a transaction with the given hash is pending.
+     *
+     * @param hash The hash of the transaction.
+     * @return Boolean true if the transaction is pending, else false.
+     */
+    public boolean containsTransaction(final String hash) {
+        return hash != null && transactions.contains(hash);
+    }
 
-        // NOTE! that we don't validate the transactions in the candidate block.
-        // This while the developer is lazy and a disgrace to the trade.
+    /**
+     * Returns the pending transaction with the given hash.
+     *
+     * @param hash The hash of the transaction.
+     * @return The transaction or null if there is no such pending transaction.
+     */
+    public Transaction getTransaction(final String hash) {
+        return hash == null ? null : transactions.get(hash);
+    }
 
-        return true;
+    /**
+     * Returns an unmodifiable version of the pending transactions list as it
+     * looks right now.
+     */
+    public List<Transaction> getTransactions() {
+        return Collections.unmodifiableList(
+                transactions.snapshot());
     }
 
 }
@@ -0,0 +1,165 @@
+package com.jayway.blockchain;
+
+import java.lang.IllegalArgumentException;
+import java.lang.IndexOutOfBoundsException;
+import java.lang.Math;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * This class stores the blocks of the blockchain in fixed size chunks. Any
+ * number of readers can take cheap, immutable snapshots of the chain while a
+ * single writer appends new blocks to it.
+ * <p>
+ * Appending a block never touches any slot visible to an existing snapshot.
+ * The block is written to the first free slot of the last chunk, or a new
+ * chunk, and a new snapshot including it is then published atomically. Old
+ * snapshots share all chunks with the new one, hence appending never copies
+ * any blocks.
+ * <p>
+ * If the chain store is backed by a {@link BlockStore}, all blocks are
+ * written to it before they are published and only the most recent chunks
+ * are kept on the heap. Older blocks are read from the block store on
+ * demand.
+ */
+public class ChainStore {
+    private static final int CHUNK_SHIFT = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int RESIDENT_CHUNKS = 4;
+
+    /**
+     * An immutable view of the chain at the time it was taken. Indexed
+     * lookups and sub lists are constant time operations.
+     */
+    public static final class Snapshot extends AbstractList<Block> implements RandomAccess {
+        private final Block[][] chunks;
+        private final int size;
+        private final BlockStore store;
+
+        private Snapshot(final Block[][] chunks, final int size, final BlockStore store) {
+            this.chunks = chunks;
+            this.size = size;
+            this.store = store;
+        }
+
+        @Override
+        public Block get(final int index) {
+            if (index < 0 || index >= size)
+                throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+
+            // Chunks that have been evicted from the heap are served by the
+            // backing block store.
+            Block[] chunk = chunks[index >>> CHUNK_SHIFT];
+            Block block = chunk == null ? null : chunk[index & CHUNK_MASK];
+            return block != null ? block : store.read(index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Returns the last block in this snapshot.
+         *
+         * @return The last block or null if the snapshot is empty.
+         */
+        public Block last() {
+            return size == 0 ? null : get(size - 1);
+        }
+    }
+
+    private final Object writeLock;
+    private final BlockStore store;
+    private volatile Snapshot head;
+
+    /**
+     * Prepares a new, empty, chain store that only keeps the blocks in memory.
+     */
+    public ChainStore() {
+        this(null);
+    }
+
+    /**
+     * Prepares a new chain store backed by the given block store. The chain
+     * store will contain all blocks already in the block store, but none of
+     * them are read until requested.
+     *
+     * @param store The block store to persist blocks in. May be null.
+     */
+    public ChainStore(final BlockStore store) {
+        int size = store == null ? 0 : store.size();
+        this.writeLock = new Object();
+        this.store = store;
+        this.head = new Snapshot(new Block[(size >>> CHUNK_SHIFT) + 1][], size, store);
+    }
+
+    /**
+     * Returns an immutable snapshot of the chain as it looks right now.
+     *
+     * @return The current snapshot.
+     */
+    public Snapshot snapshot() {
+        return head;
+    }
+
+    /**
+     * Returns the number of blocks in the store right now.
+     *
+     * @return The size of the chain.
+     */
+    public int size() {
+        return head.size;
+    }
+
+    /**
+     * Appends the given blocks to the end of the chain. The blocks become
+     * visible to readers all at once, when the new snapshot is published.
+     *
+     * @param blocks The blocks to append.
+     * @return The snapshot including the new blocks.
+     * @throws IllegalArgumentException if any of the blocks is null.
+     */
+    public Snapshot append(final List<Block> blocks) throws IllegalArgumentException {
+        synchronized (writeLock) {
+            Snapshot current = head;
+            Block[][] chunks = current.chunks;
+            int size = current.size;
+
+            for (Block block : blocks)
+                if (block == null)
+                    throw new IllegalArgumentException("Invalid block: null");
+
+            if (store != null)
+                store.append(blocks);
+
+            for (Block block : blocks) {
+                int chunk = size >>> CHUNK_SHIFT;
+                if (chunk == chunks.length)
+                    chunks = Arrays.copyOf(chunks, Math.max(4, chunks.length * 2));
+
+                if (chunks[chunk] == null) {
+                    chunks[chunk] = new Block[CHUNK_SIZE];
+
+                    // Only keep the most recent chunks on the heap if the
+                    // blocks are persisted anyway.
+                    if (store != null && chunk >= RESIDENT_CHUNKS)
+                        chunks[chunk - RESIDENT_CHUNKS] = null;
+                }
+
+                chunks[chunk][size & CHUNK_MASK] = block;
+                size++;
+            }
+
+            // Publishing the new snapshot through the volatile field makes
+            // all above writes visible to any reader of the new snapshot.
+            head = new Snapshot(chunks, size, store);
+            return head;
+        }
+    }
+
+}
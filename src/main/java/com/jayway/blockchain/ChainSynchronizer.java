@@ -0,0 +1,311 @@
+package com.jayway.blockchain;
+
+import com.google.gson.JsonParseException;
+
+import java.lang.IllegalArgumentException;
+import java.lang.Integer;
+import java.lang.Math;
+import java.lang.String;
+import java.lang.System;
+import java.lang.Thread;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * This class brings our blockchain up to date with the longest blockchain
+ * among our peers. Only the blocks on top of our own blockchain are
+ * requested. The gap is split into ranges, which are downloaded from all
+ * peers that have them at once. The ranges are put back in order and
+ * appended to our blockchain as soon as they connect to it, one range at a
+ * time on a thread of their own. A range that fails to download or to
+ * validate is requested again from another peer.
+ * <p>
+ * Only one synchronization runs at a time. Asking for a synchronization
+ * while one is running joins the running one.
+ */
+public class ChainSynchronizer {
+    private static final int RANGE_SIZE = 256;
+    private static final int RANGES_PER_PEER = 2;
+
+    private static final class Range {
+        final int from;
+        final int to;
+        int attempts;
+        Block[] blocks;
+
+        Range(final int from, final int to, final int attempts) {
+            this.from = from;
+            this.to = to;
+            this.attempts = attempts;
+        }
+    }
+
+    private static final class Height {
+        int height;
+    }
+
+    /*
+     * The state of one synchronization. Most methods are called on the HTTP
+     * client's threads, and some on the appender thread, hence the
+     * synchronization. Validating and appending blocks is slow, so it's
+     * never done while holding the lock.
+     */
+    private final class Session {
+        final CompletableFuture<Boolean> result = new CompletableFuture<>();
+        final PriorityQueue<Range> waiting = new PriorityQueue<>((a, b) -> Integer.compare(a.from, b.from));
+        final TreeMap<Integer, Range> arrived = new TreeMap<>();
+        final Map<String, Integer> inFlight = new HashMap<>();
+        final Map<String, Integer> heights;
+        final List<String> peers;
+        final int target;
+        int nextPeer;
+        boolean appending;
+
+        Session(final Map<String, Integer> heights, final int from, final int target) {
+            this.heights = heights;
+            this.peers = new ArrayList<>(heights.keySet());
+            this.target = target;
+
+            for (int i = from; i < target; i += RANGE_SIZE)
+                waiting.add(new Range(i, Math.min(target, i + RANGE_SIZE), 0));
+        }
+
+        synchronized void dispatch() {
+            if (result.isDone())
+                return;
+
+            // Keep every peer that has the blocks busy with a few ranges,
+            // but don't run too far ahead of our blockchain. The lowest
+            // ranges go first and ranges filling a gap before the arrived
+            // ranges are always welcome.
+            int window = peers.size() * RANGES_PER_PEER;
+            while (!waiting.isEmpty() && inFlightCount() < window) {
+                Range range = waiting.peek();
+                if (arrived.size() >= window && range.from > arrived.firstKey())
+                    break;
+
+                String peer = pickPeer(range);
+                if (peer == null)
+                    break;
+
+                waiting.poll();
+                request(peer, range);
+            }
+
+            if (waiting.isEmpty() && inFlightCount() == 0 && arrived.isEmpty() && !appending)
+                result.complete(blockchain.getNextBlockIndex() >= target);
+        }
+
+        synchronized void onResponse(final String peer, final Range range, final byte[] bytes) {
+            inFlight.merge(peer, -1, Integer::sum);
+
+            Block[] blocks;
+            try {
+                blocks = BinaryCodec.decodeBlocks(bytes);
+            } catch (IllegalArgumentException e) {
+                blocks = new Block[0];
+            }
+
+            // The peer may have served fewer blocks than we asked for. Keep
+            // what we got and ask for the rest later.
+            if (blocks.length == 0 || blocks[0] == null || blocks[0].index != range.from) {
+                retry(range);
+            } else {
+                int count = Math.min(blocks.length, range.to - range.from);
+                Range received = new Range(range.from, range.from + count, range.attempts);
+                received.blocks = Arrays.copyOf(blocks, count);
+                arrived.put(received.from, received);
+                if (received.to < range.to)
+                    waiting.add(new Range(received.to, range.to, range.attempts));
+            }
+
+            if (!appending) {
+                appending = true;
+                appender.execute(this::appendArrived);
+            }
+
+            dispatch();
+        }
+
+        /*
+         * Appends all arrived ranges that connect to our blockchain. Runs
+         * on the appender thread.
+         */
+        private void appendArrived() {
+            Range range;
+            while ((range = takeConnecting()) != null) {
+                if (!blockchain.appendBlocks(range.blocks)) {
+                    synchronized (this) {
+                        retry(range);
+                    }
+                }
+            }
+        }
+
+        /*
+         * Takes the first arrived range out if it connects to our
+         * blockchain, trimmed to the blocks we don't have yet. Returns null,
+         * and stops appending, if there is no such range.
+         */
+        private synchronized Range takeConnecting() {
+            Map.Entry<Integer, Range> first;
+            while (!result.isDone() && (first = arrived.firstEntry()) != null) {
+                int next = blockchain.getNextBlockIndex();
+                Range range = first.getValue();
+
+                // There is still a gap.
+                if (range.from > next)
+                    break;
+
+                arrived.pollFirstEntry();
+
+                // Our blockchain may have grown by other means meanwhile.
+                if (range.to <= next)
+                    continue;
+
+                Range connecting = new Range(next, range.to, range.attempts);
+                connecting.blocks = Arrays.copyOfRange(range.blocks, next - range.from, range.blocks.length);
+                dispatch();
+                return connecting;
+            }
+
+            appending = false;
+            dispatch();
+            return null;
+        }
+
+        private void retry(final Range range) {
+            range.attempts++;
+            if (range.attempts > peers.size() * RANGES_PER_PEER) {
+                System.out.printf("Aborted synchronization: Couldn't get blocks %d to %d\n",
+                        range.from, range.to - 1);
+                result.complete(false);
+                return;
+            }
+
+            waiting.add(range);
+        }
+
+        private void request(final String peer, final Range range) {
+            inFlight.merge(peer, 1, Integer::sum);
+            NetworkHelper
+                    .getBinary(peer + "/blocks?from=" + range.from + "&to=" + range.to)
+                    .thenAccept(bytes -> onResponse(peer, range, bytes));
+        }
+
+        /*
+         * Picks the next peer, round robin, that has the entire range and
+         * isn't already busy. Retried ranges start with another peer.
+         */
+        private String pickPeer(final Range range) {
+            for (int i = 0; i < peers.size(); i++) {
+                String peer = peers.get((nextPeer + range.attempts + i) % peers.size());
+                if (heights.get(peer) >= range.to &&
+                        inFlight.getOrDefault(peer, 0) < RANGES_PER_PEER) {
+                    nextPeer++;
+                    return peer;
+                }
+            }
+
+            return null;
+        }
+
+        private int inFlightCount() {
+            int count = 0;
+            for (int n : inFlight.values())
+                count += n;
+
+            return count;
+        }
+    }
+
+    private final Blockchain blockchain;
+    private final ExecutorService appender;
+    private CompletableFuture<Boolean> running;
+
+    /**
+     * Prepares a new synchronizer for the given blockchain.
+     *
+     * @param blockchain The blockchain to bring up to date.
+     */
+    public ChainSynchronizer(final Blockchain blockchain) {
+        this.blockchain = blockchain;
+        this.appender = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "chain-appender");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Synchronizes our blockchain with the given peers. The peers are first
+     * asked for their heights and then all blocks we're missing are
+     * downloaded from the peers that have them.
+     *
+     * @param peers The URLs of the peers to synchronize with.
+     * @return A future delivering boolean true if our blockchain is at least
+     * as high as the highest peer's blockchain afterwards, else false.
+     */
+    public synchronized CompletableFuture<Boolean> synchronize(final Collection<String> peers) {
+        if (running != null && !running.isDone())
+            return running;
+
+        if (peers == null || peers.isEmpty())
+            return CompletableFuture.completedFuture(true);
+
+        Map<String, CompletableFuture<Integer>> requests = new HashMap<>();
+        for (String peer : peers)
+            requests.put(peer, NetworkHelper.get(peer + "/height").thenApply(ChainSynchronizer::parseHeight));
+
+        running = CompletableFuture
+                .allOf(requests.values().toArray(new CompletableFuture<?>[0]))
+                .thenCompose(nothing -> {
+                    Map<String, Integer> heights = new HashMap<>();
+                    int target = 0;
+                    for (Map.Entry<String, CompletableFuture<Integer>> request : requests.entrySet()) {
+                        int height = request.getValue().join();
+                        if (height > 0) {
+                            heights.put(request.getKey(), height);
+                            target = Math.max(target, height);
+                        }
+                    }
+
+                    int from = blockchain.getNextBlockIndex();
+                    if (target <= from)
+                        return CompletableFuture.completedFuture(true);
+
+                    System.out.printf("Started synchronization of blocks %d to %d from %d peers\n",
+                            from, target - 1, heights.size());
+
+                    Session session = new Session(heights, from, target);
+                    session.dispatch();
+                    return session.result;
+                });
+
+        return running;
+    }
+
+    /*
+     * Parses a height response. Anything unexpected counts as no blocks.
+     */
+    private static int parseHeight(final String json) {
+        try {
+            Height height = JsonHelper.gson().fromJson(json, Height.class);
+            return height == null ? 0 : height.height;
+        } catch (JsonParseException e) {
+            return 0;
+        }
+    }
+
+}
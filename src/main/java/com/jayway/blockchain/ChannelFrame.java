@@ -0,0 +1,107 @@
+package com.jayway.blockchain;
+
+import java.lang.String;
+import java.util.List;
+
+/**
+ *  This class represents a message sent over a {@link PeerChannels peer
+ *  channel}. Each frame is sent as a JSON text message and has a type,
+ *  telling which of the other fields are set:
+ *  <ul>
+ *      <li>{@code hello}: the sender, announcing who's on the other end of a
+ *      new channel.</li>
+ *      <li>{@code inventory}: the sender and the hashes of the blocks and
+ *      transactions it has, as in an {@link Inventory}.</li>
+ *      <li>{@code request}: an id and the hashes of the blocks and
+ *      transactions to send back.</li>
+ *      <li>{@code response}: the id of the request it answers and the
+ *      requested blocks and transactions the responder has.</li>
+ *  </ul>
+ */
+public class ChannelFrame {
+    public static final String HELLO = "hello";
+    public static final String INVENTORY = "inventory";
+    public static final String REQUEST = "request";
+    public static final String RESPONSE = "response";
+
+    public final String type;
+    public final long id;
+    public final String sender;
+    public final List<String> blockHashes;
+    public final List<String> transactionHashes;
+    public final List<Block> blocks;
+    public final List<Transaction> transactions;
+
+
+    // Hidden constructor
+    private ChannelFrame(final String type,
+                         final long id,
+                         final String sender,
+                         final List<String> blockHashes,
+                         final List<String> transactionHashes,
+                         final List<Block> blocks,
+                         final List<Transaction> transactions) {
+
+        this.type = type;
+        this.id = id;
+        this.sender = sender;
+        this.blockHashes = blockHashes;
+        this.transactionHashes = transactionHashes;
+        this.blocks = blocks;
+        this.transactions = transactions;
+    }
+
+    /**
+     * Creates a frame introducing the sender on a new channel.
+     *
+     * @param sender The URL of the sending node.
+     * @return The frame.
+     */
+    public static ChannelFrame hello(final String sender) {
+        return new ChannelFrame(HELLO, 0, sender, null, null, null, null);
+    }
+
+    /**
+     * Creates a frame announcing the given inventory.
+     *
+     * @param inventory The blocks and transactions to announce.
+     * @return The frame.
+     */
+    public static ChannelFrame inventory(final Inventory inventory) {
+        return new ChannelFrame(INVENTORY, 0, inventory.sender,
+                inventory.blocks, inventory.transactions, null, null);
+    }
+
+    /**
+     * Creates a frame requesting the blocks and transactions with the given
+     * hashes.
+     *
+     * @param id                The id of the request, echoed in the
+     *                          response.
+     * @param blockHashes       The hashes of the requested blocks.
+     * @param transactionHashes The hashes of the requested transactions.
+     * @return The frame.
+     */
+    public static ChannelFrame request(final long id,
+                                       final List<String> blockHashes,
+                                       final List<String> transactionHashes) {
+
+        return new ChannelFrame(REQUEST, id, null, blockHashes, transactionHashes, null, null);
+    }
+
+    /**
+     * Creates a frame answering a request.
+     *
+     * @param id           The id of the request being answered.
+     * @param blocks       The requested blocks we have.
+     * @param transactions The requested transactions we have.
+     * @return The frame.
+     */
+    public static ChannelFrame response(final long id,
+                                        final List<Block> blocks,
+                                        final List<Transaction> transactions) {
+
+        return new ChannelFrame(RESPONSE, id, null, null, null, blocks, transactions);
+    }
+
+}
@@ -0,0 +1,144 @@
+package com.jayway.blockchain;
+
+import java.lang.IllegalArgumentException;
+import java.lang.Integer;
+import java.lang.Math;
+import java.lang.NumberFormatException;
+import java.lang.String;
+import java.lang.StringBuilder;
+
+import java.math.BigInteger;
+
+import java.util.function.IntFunction;
+
+/**
+ * This class knows how to adjust the proof-of-work target to hold a steady
+ * block interval, no matter how much hashing power the network has.
+ * <p>
+ * The target is a 256 bit unsigned integer, expressed as a 64 digit lower
+ * case hex-string in the block header. A block hash meets the target if it's
+ * less than or equal to it. The genesis block has the initial target. Every
+ * {@value #RETARGET_INTERVAL} blocks the target is scaled by how long the
+ * last {@value #RETARGET_INTERVAL} blocks actually took, compared to how long
+ * they were expected to take, as told by their timestamps. A single
+ * adjustment never makes the target more than {@value #MAX_ADJUSTMENT} times
+ * harder or easier, and the target is never easier than the target limit.
+ * All other blocks have the same target as their predecessor.
+ * <p>
+ * These are consensus rules; all nodes must agree on them or they will
+ * reject each other's blocks.
+ */
+public class DifficultyHelper {
+
+    /**
+     * The number of blocks between two target adjustments.
+     */
+    public static final int RETARGET_INTERVAL = 16;
+
+    /**
+     * The desired number of milliseconds between two blocks.
+     */
+    public static final long BLOCK_INTERVAL = 10_000L;
+
+    /**
+     * The target of the genesis block, requiring 12 leading zero bits.
+     */
+    public static final String INITIAL_TARGET = toHex(ProofOfWork.targetOf(12));
+
+    // The max factor a target may change by in one adjustment.
+    private static final int MAX_ADJUSTMENT = 4;
+
+    // The easiest target allowed, requiring 8 leading zero bits.
+    private static final BigInteger TARGET_LIMIT = new BigInteger(toHex(ProofOfWork.targetOf(8)), 16);
+
+    /**
+     * Calculates the target of the block following the given tip.
+     *
+     * @param tip     The last block of the blockchain. May be null, in which
+     *                case the next block is the genesis block.
+     * @param blockAt Looks up the block with a given index at or before the
+     *                tip. Only called when the target is adjusted.
+     * @return The target of the next block as a hex-string.
+     */
+    public static String nextTarget(final Block tip, final IntFunction<Block> blockAt) {
+        if (tip == null)
+            return INITIAL_TARGET;
+
+        if ((tip.index + 1) % RETARGET_INTERVAL != 0)
+            return tip.target;
+
+        // The window holds RETARGET_INTERVAL blocks, hence one interval less.
+        Block first = blockAt.apply(tip.index + 1 - RETARGET_INTERVAL);
+        long expected = (RETARGET_INTERVAL - 1) * BLOCK_INTERVAL;
+        long actual = tip.timestamp - first.timestamp;
+        actual = Math.max(expected / MAX_ADJUSTMENT, Math.min(expected * MAX_ADJUSTMENT, actual));
+
+        BigInteger target = new BigInteger(tip.target, 16)
+                .multiply(BigInteger.valueOf(actual))
+                .divide(BigInteger.valueOf(expected))
+                .max(BigInteger.ONE)
+                .min(TARGET_LIMIT);
+
+        return String.format("%064x", target);
+    }
+
+    /**
+     * Tests whether the given target is a canonical 64 digit lower case
+     * hex-string within the target limit.
+     *
+     * @param target The target to test.
+     * @return Boolean true if the target is well formed, else false.
+     */
+    public static boolean isWellFormed(final String target) {
+        if (target == null || target.length() != 64)
+            return false;
+
+        for (int i = 0; i < target.length(); i++) {
+            char c = target.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f'))
+                return false;
+        }
+
+        BigInteger value = new BigInteger(target, 16);
+        return value.signum() > 0 && value.compareTo(TARGET_LIMIT) <= 0;
+    }
+
+    /**
+     * Parses a target hex-string into the binary form used by
+     * {@link ProofOfWork}.
+     *
+     * @param target The target as a 64 digit hex-string.
+     * @return The target as eight big-endian integers.
+     * @throws IllegalArgumentException if the target isn't a 64 digit
+     *                                  hex-string.
+     */
+    public static int[] parseTarget(final String target) throws IllegalArgumentException {
+        if (target == null || target.length() != 64)
+            throw new IllegalArgumentException("Invalid target: " + target);
+
+        int[] words = new int[8];
+        try {
+            for (int i = 0; i < 8; i++)
+                words[i] = Integer.parseUnsignedInt(target.substring(i * 8, i * 8 + 8), 16);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid target: " + target, e);
+        }
+
+        return words;
+    }
+
+    /**
+     * Formats a binary target as a 64 digit hex-string.
+     *
+     * @param target The target as eight big-endian integers.
+     * @return The target as a hex-string.
+     */
+    public static String toHex(final int[] target) {
+        StringBuilder builder = new StringBuilder(64);
+        for (int word : target)
+            builder.append(String.format("%08x", word));
+
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,152 @@
+package com.jayway.blockchain;
+
+import java.lang.IllegalArgumentException;
+import java.lang.Math;
+import java.lang.String;
+import java.lang.Thread;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * This class combines transactions that are to be gossiped to our peers into
+ * batches. Each peer has its own buffer, which is handed to the sink as one
+ * batch when it's full or when its oldest transaction has waited for the max
+ * delay, whichever comes first. The sink decides how the batch is actually
+ * sent to the peer.
+ */
+public class GossipBatcher {
+
+    private static final class PeerBuffer {
+        final List<Transaction> pending = new ArrayList<>();
+        boolean flushScheduled;
+    }
+
+    private final BiConsumer<String, List<Transaction>> sink;
+    private final int maxBatchSize;
+    private final long maxDelay;
+    private final ConcurrentHashMap<String, PeerBuffer> buffers;
+    private final ScheduledExecutorService flushService;
+
+    /**
+     * Prepares a new gossip batcher.
+     *
+     * @param maxBatchSize The max number of transactions in one batch.
+     * @param maxDelay     The max number of milliseconds a transaction may
+     *                     wait before it's sent.
+     * @param sink         Sends a batch of transactions to a peer, given the
+     *                     peer URL. Called on a background thread.
+     * @throws IllegalArgumentException if the batch size or delay isn't
+     *                                  positive.
+     */
+    public GossipBatcher(final int maxBatchSize,
+                         final long maxDelay,
+                         final BiConsumer<String, List<Transaction>> sink) throws IllegalArgumentException {
+
+        if (maxBatchSize < 1)
+            throw new IllegalArgumentException("Invalid batch size: " + maxBatchSize);
+
+        if (maxDelay < 1)
+            throw new IllegalArgumentException("Invalid delay: " + maxDelay);
+
+        this.sink = sink;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelay = maxDelay;
+        this.buffers = new ConcurrentHashMap<>();
+        this.flushService = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "gossip-batcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Queues the given transactions for each of the given peers.
+     *
+     * @param peers        The URLs of the peers to send the transactions to.
+     * @param transactions The transactions to send.
+     */
+    public void offer(final Collection<String> peers, final List<Transaction> transactions) {
+        if (transactions.isEmpty())
+            return;
+
+        for (String peer : peers) {
+            PeerBuffer buffer = buffers.computeIfAbsent(peer, key -> new PeerBuffer());
+            List<Transaction> batch = null;
+
+            synchronized (buffer) {
+                buffer.pending.addAll(transactions);
+                if (buffer.pending.size() >= maxBatchSize) {
+                    batch = drain(peer, buffer);
+                } else if (!buffer.flushScheduled) {
+                    buffer.flushScheduled = true;
+                    flushService.schedule(() -> flush(peer), maxDelay, TimeUnit.MILLISECONDS);
+                }
+            }
+
+            // Send outside the lock, the sink may take its time.
+            if (batch != null)
+                send(peer, batch);
+        }
+    }
+
+    /**
+     * Sends whatever is buffered for all peers right away.
+     */
+    public void flushAll() {
+        for (String peer : buffers.keySet())
+            flush(peer);
+    }
+
+    /*
+     * Sends whatever is buffered for the given peer.
+     */
+    private void flush(final String peer) {
+        PeerBuffer buffer = buffers.get(peer);
+        if (buffer == null)
+            return;
+
+        List<Transaction> batch;
+        synchronized (buffer) {
+            buffer.flushScheduled = false;
+            batch = drain(peer, buffer);
+        }
+
+        send(peer, batch);
+    }
+
+    /*
+     * Takes at most one batch worth of transactions from the peer's buffer.
+     * Any remaining transactions are sent by an immediate follow-up flush.
+     * Must be called while holding the buffer lock.
+     */
+    private List<Transaction> drain(final String peer, final PeerBuffer buffer) {
+        int count = Math.min(maxBatchSize, buffer.pending.size());
+        List<Transaction> head = buffer.pending.subList(0, count);
+        List<Transaction> batch = new ArrayList<>(head);
+        head.clear();
+
+        if (!buffer.pending.isEmpty() && !buffer.flushScheduled) {
+            buffer.flushScheduled = true;
+            flushService.execute(() -> flush(peer));
+        }
+
+        return batch;
+    }
+
+    /*
+     * Hands one batch for the given peer to the sink.
+     */
+    private void send(final String peer, final List<Transaction> batch) {
+        if (!batch.isEmpty())
+            sink.accept(peer, batch);
+    }
+
+}
@@ -2,25 +2,39 @@ package com.jayway.blockchain;
 
 import java.lang.IllegalArgumentException;
 import java.lang.String;
-import java.lang.StringBuilder;
+import java.lang.ThreadLocal;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
 
 /**
- *  This class offers convenience hashing methods.
+ *  This class offers convenience hashing methods. All methods are thread safe
+ *  and lock free; each thread uses its own digest instance.
  */
 public class HashHelper {
-    private static final MessageDigest ALGORITHM;
+    // Bulk requests smaller than this aren't worth spreading over cores.
+    private static final int PARALLEL_THRESHOLD = 64;
 
-    static {
-        try {
-            ALGORITHM = MessageDigest.getInstance("SHA-256");
-        } catch (NoSuchAlgorithmException e) {
-            throw new IllegalArgumentException("No SHA-256 algorithm", e);
-        }
-    }
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    // The value of each ASCII hex digit, or -1 for any other character.
+    private static final byte[] HEX_VALUES = hexValues();
+
+    // MessageDigest instances aren't thread safe, hence each thread gets its
+    // own instance.
+    private static final ThreadLocal<MessageDigest> ALGORITHM =
+            ThreadLocal.withInitial(() -> {
+                try {
+                    return MessageDigest.getInstance("SHA-256");
+                } catch (NoSuchAlgorithmException e) {
+                    throw new IllegalArgumentException("No SHA-256 algorithm", e);
+                }
+            });
 
     /**
      *  Tries to hash a string with the SHA256 algorithm.
@@ -33,13 +47,146 @@ public class HashHelper {
         if (string == null)
             throw new IllegalArgumentException("Invalid payload: " + string);
 
-        byte[] hash = ALGORITHM.digest(string.getBytes(StandardCharsets.UTF_8));
-        StringBuilder stringBuilder = new StringBuilder();
+        return toHex(digest(string.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     *  Digests the given bytes with the SHA256 algorithm.
+     *
+     *  @param bytes    The bytes to digest.
+     *
+     *  @return The resulting 32 byte digest.
+     */
+    public static byte[] digest(final byte[] bytes) {
+        if (bytes == null)
+            throw new IllegalArgumentException("Invalid payload: null");
+
+        return ALGORITHM.get().digest(bytes);
+    }
+
+    /**
+     *  Digests the remaining bytes of the given buffer with the SHA256
+     *  algorithm. The buffer position is moved to its limit.
+     *
+     *  @param buffer   The buffer to digest.
+     *
+     *  @return The resulting 32 byte digest.
+     */
+    public static byte[] digest(final ByteBuffer buffer) {
+        if (buffer == null)
+            throw new IllegalArgumentException("Invalid payload: null");
+
+        MessageDigest digest = ALGORITHM.get();
+        digest.update(buffer);
+        return digest.digest();
+    }
+
+    /**
+     *  Hashes all given strings with the SHA256 algorithm. Large batches are
+     *  spread over all available cores.
+     *
+     *  @param strings  The strings to hash.
+     *
+     *  @return The resulting hex-strings, in the same order as the input.
+     */
+    public static List<String> hashAll(final List<String> strings) {
+        if (strings == null)
+            throw new IllegalArgumentException("Invalid payload: null");
+
+        return (strings.size() < PARALLEL_THRESHOLD ?
+                strings.stream() :
+                strings.parallelStream())
+                .map(HashHelper::hash)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     *  Digests all given byte arrays with the SHA256 algorithm. Large batches
+     *  are spread over all available cores.
+     *
+     *  @param payloads The byte arrays to digest.
+     *
+     *  @return The resulting digests, in the same order as the input.
+     */
+    public static byte[][] digestAll(final byte[][] payloads) {
+        if (payloads == null)
+            throw new IllegalArgumentException("Invalid payload: null");
+
+        return (payloads.length < PARALLEL_THRESHOLD ?
+                Arrays.stream(payloads) :
+                Arrays.stream(payloads).parallel())
+                .map(HashHelper::digest)
+                .toArray(byte[][]::new);
+    }
 
-        for(byte b : hash)
-            stringBuilder.append(Integer.toHexString(0xFF & b));
+    /**
+     *  Encodes the given bytes as a lower case hex-string. Each byte is
+     *  expressed as exactly two characters, leading zeros included.
+     *
+     *  @param bytes    The bytes to encode.
+     *
+     *  @return The hex-string.
+     */
+    public static String toHex(final byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0x0F];
+            chars[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0x0F];
+        }
 
-        return stringBuilder.toString();
+        return new String(chars);
     }
-    
+
+    /**
+     *  Decodes the given hex-string into bytes. Both lower and upper case
+     *  digits are accepted, but nothing else, not even digits of other
+     *  scripts.
+     *
+     *  @param hex      The hex-string to decode.
+     *
+     *  @return The decoded bytes.
+     *  @throws IllegalArgumentException if the string isn't valid hex.
+     */
+    public static byte[] fromHex(final String hex) throws IllegalArgumentException {
+        if (hex == null || hex.length() % 2 != 0)
+            throw new IllegalArgumentException("Invalid hex: " + hex);
+
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int high = hexValue(hex.charAt(i * 2));
+            int low = hexValue(hex.charAt(i * 2 + 1));
+            if (high < 0 || low < 0)
+                throw new IllegalArgumentException("Invalid hex: " + hex);
+
+            bytes[i] = (byte) (high << 4 | low);
+        }
+
+        return bytes;
+    }
+
+    /*
+     *  Returns the value of the given hex digit, or -1 if it isn't one. Only
+     *  ASCII digits count, unlike with Character.digit().
+     */
+    private static int hexValue(final char c) {
+        return c < HEX_VALUES.length ? HEX_VALUES[c] : -1;
+    }
+
+    /*
+     *  Builds the decode table for hex digits, both lower and upper case.
+     */
+    private static byte[] hexValues() {
+        byte[] values = new byte[128];
+        Arrays.fill(values, (byte) -1);
+        for (int i = 0; i < 10; i++)
+            values['0' + i] = (byte) i;
+
+        for (int i = 0; i < 6; i++) {
+            values['a' + i] = (byte) (10 + i);
+            values['A' + i] = (byte) (10 + i);
+        }
+
+        return values;
+    }
+
 }
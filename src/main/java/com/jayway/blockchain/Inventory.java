@@ -0,0 +1,32 @@
+package com.jayway.blockchain;
+
+import java.lang.String;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *  This class represents an announcement of blocks and transactions that a
+ *  node has, identified by their hashes only.
+ */
+public class Inventory {
+    public final String sender;
+    public final List<String> blocks;
+    public final List<String> transactions;
+
+
+    public Inventory(final String sender,
+                     final List<String> blocks,
+                     final List<String> transactions) {
+
+        this.sender = sender;
+        this.blocks = new ArrayList<>();
+        this.transactions = new ArrayList<>();
+
+        if (blocks != null && !blocks.isEmpty())
+            this.blocks.addAll(blocks);
+
+        if (transactions != null && !transactions.isEmpty())
+            this.transactions.addAll(transactions);
+    }
+
+}
@@ -0,0 +1,126 @@
+package com.jayway.blockchain;
+
+import java.lang.IllegalArgumentException;
+import java.lang.String;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class keeps track of which peer is known to have which blocks and
+ * transactions, so that we don't announce items to peers that already have
+ * them. It also keeps track of which items we have requested from any peer
+ * but not received yet, so that we don't request the same item from several
+ * peers at once.
+ * <p>
+ * Only the most recently seen hashes are remembered for each peer. Forgetting
+ * a hash means at worst that it's announced once more.
+ */
+public class InventoryTracker {
+
+    private static final class KnownHashes extends LinkedHashMap<String, Boolean> {
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        KnownHashes(final int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Boolean> eldest) {
+            return size() > capacity;
+        }
+    }
+
+    private final int capacity;
+    private final ConcurrentHashMap<String, KnownHashes> known;
+    private final Set<String> requested;
+
+    /**
+     * Prepares a new, empty, inventory tracker.
+     *
+     * @param capacity The max number of hashes to remember for each peer.
+     * @throws IllegalArgumentException if the capacity isn't positive.
+     */
+    public InventoryTracker(final int capacity) throws IllegalArgumentException {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+
+        this.capacity = capacity;
+        this.known = new ConcurrentHashMap<>();
+        this.requested = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Remembers that the given peer has the items with the given hashes.
+     *
+     * @param peer   The URL of the peer.
+     * @param hashes The hashes of the items the peer has.
+     */
+    public void markKnown(final String peer, final Collection<String> hashes) {
+        KnownHashes hashesOfPeer = known.computeIfAbsent(peer, key -> new KnownHashes(capacity));
+        synchronized (hashesOfPeer) {
+            for (String hash : hashes)
+                hashesOfPeer.put(hash, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Picks the hashes that the given peer isn't known to have and remembers
+     * them as known, as they are about to be announced to the peer.
+     *
+     * @param peer   The URL of the peer.
+     * @param hashes The hashes of the items to announce.
+     * @return The hashes to actually announce. May be empty but never null.
+     */
+    public List<String> takeUnknown(final String peer, final Collection<String> hashes) {
+        KnownHashes hashesOfPeer = known.computeIfAbsent(peer, key -> new KnownHashes(capacity));
+        List<String> result = new ArrayList<>(hashes.size());
+        synchronized (hashesOfPeer) {
+            for (String hash : hashes)
+                if (hashesOfPeer.put(hash, Boolean.TRUE) == null)
+                    result.add(hash);
+        }
+
+        return result;
+    }
+
+    /**
+     * Claims the right to request the item with the given hash. Only one
+     * claim per hash is granted until the claim is released.
+     *
+     * @param hash The hash of the item to request.
+     * @return Boolean true if the claim was granted, else false.
+     */
+    public boolean claim(final String hash) {
+        return requested.add(hash);
+    }
+
+    /**
+     * Releases claims made through {@link #claim(String)}, whether the items
+     * were received or not.
+     *
+     * @param hashes The hashes of the items to release.
+     */
+    public void release(final Collection<String> hashes) {
+        requested.removeAll(hashes);
+    }
+
+    /**
+     * Forgets everything about the given peer.
+     *
+     * @param peer The URL of the peer.
+     */
+    public void forget(final String peer) {
+        known.remove(peer);
+    }
+
+}
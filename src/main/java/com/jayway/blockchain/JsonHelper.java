@@ -0,0 +1,91 @@
+package com.jayway.blockchain;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.IllegalArgumentException;
+import java.lang.String;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ *  This class holds the one JSON serializer used for everything this node
+ *  parses and encodes, be it request bodies, responses, gossip or peer
+ *  lists. A Gson instance is thread safe and caches the type adapters it
+ *  builds by reflection, so sharing it spares each call that work. HTML
+ *  escaping is disabled, as nothing we encode ends up in a web page.
+ */
+public class JsonHelper {
+
+    private static final class InstanceHolder {
+        static final Gson GSON = new GsonBuilder()
+                .disableHtmlEscaping()
+                .create();
+    }
+
+    /**
+     *  Returns the shared JSON serializer.
+     *
+     *  @return The serializer.
+     */
+    public static Gson gson() {
+        return InstanceHolder.GSON;
+    }
+
+    /**
+     *  Encodes the given object as JSON with the shared serializer.
+     *
+     *  @param object   The object to encode.
+     *  @return The JSON string.
+     */
+    public static String toJson(final Object object) {
+        return InstanceHolder.GSON.toJson(object);
+    }
+
+    /**
+     *  Parses UTF-8 encoded JSON straight from the given stream into an
+     *  object of the given type, in one pass, without buffering the text.
+     *
+     *  @param json The stream to parse. Not closed.
+     *  @param type The type of the object to parse.
+     *  @param <T>  The type of the object to parse.
+     *  @return The parsed object. Null if the stream holds no JSON at all.
+     *  @throws IllegalArgumentException if the stream doesn't hold exactly
+     *                                   one JSON value of the given type.
+     */
+    public static <T> T fromJson(final InputStream json, final Class<T> type) throws IllegalArgumentException {
+        return fromJson(new InputStreamReader(json, UTF_8), type);
+    }
+
+    /**
+     *  Parses JSON straight from the given reader into an object of the given
+     *  type, in one pass.
+     *
+     *  @param json The reader to parse. Not closed.
+     *  @param type The type of the object to parse.
+     *  @param <T>  The type of the object to parse.
+     *  @return The parsed object. Null if the reader holds no JSON at all.
+     *  @throws IllegalArgumentException if the reader doesn't hold exactly
+     *                                   one JSON value of the given type.
+     */
+    public static <T> T fromJson(final Reader json, final Class<T> type) throws IllegalArgumentException {
+        try {
+            JsonReader reader = new JsonReader(json);
+            T result = InstanceHolder.GSON.fromJson(reader, type);
+            if (result != null && reader.peek() != JsonToken.END_DOCUMENT)
+                throw new IllegalArgumentException("Unexpected content after JSON");
+
+            return result;
+        } catch (JsonParseException | IOException e) {
+            throw new IllegalArgumentException("Invalid JSON", e);
+        }
+    }
+
+}
@@ -0,0 +1,312 @@
+package com.jayway.blockchain;
+
+import java.lang.IllegalArgumentException;
+import java.lang.Math;
+import java.lang.String;
+import java.lang.System;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class holds the pending transactions that haven't been included in a
+ * block yet. Transactions are indexed by their hash, allowing constant time
+ * insertion, lookup and removal, while the insertion order is kept in a
+ * separate queue. Removed transactions are only lazily dropped from the queue.
+ * <p>
+ * The pool is bounded both in size and in time. New transactions are rejected
+ * when the pool is full and transactions that have been waiting for longer
+ * than the max age are evicted.
+ * <p>
+ * Interested parties may listen for transactions entering and leaving the
+ * pool. The listeners are called synchronously, on the thread making the
+ * change. As changes may be made by several threads at once, a listener may
+ * occasionally hear about a transaction leaving the pool before it hears
+ * about it entering.
+ */
+public class Mempool {
+    // Don't bother compacting the order queue until it holds at least this
+    // many removed entries.
+    private static final int MIN_COMPACTION_COUNT = 1024;
+
+    private static final Metrics.Counter ADDED = Metrics.counter(
+            "blockchain_mempool_added_total",
+            "Number of transactions added to the pool");
+    private static final Metrics.Counter REJECTED_FULL = Metrics.counter(
+            "blockchain_mempool_rejected_total",
+            "Number of transactions rejected by the pool",
+            "reason", "full");
+    private static final Metrics.Counter REJECTED_DUPLICATE = Metrics.counter(
+            "blockchain_mempool_rejected_total",
+            "Number of transactions rejected by the pool",
+            "reason", "duplicate");
+    private static final Metrics.Counter REMOVED = Metrics.counter(
+            "blockchain_mempool_removed_total",
+            "Number of transactions removed from the pool, e.g. when mined");
+    private static final Metrics.Counter EVICTED = Metrics.counter(
+            "blockchain_mempool_evicted_total",
+            "Number of transactions evicted from the pool due to their age");
+
+    /**
+     * Listens for transactions entering and leaving the pool.
+     */
+    public interface Listener {
+        void onAdded(final Transaction transaction, final long arrival);
+
+        void onRemoved(final Transaction transaction);
+    }
+
+    private static final class Entry {
+        final Transaction transaction;
+        final long arrival;
+
+        Entry(final Transaction transaction, final long arrival) {
+            this.transaction = transaction;
+            this.arrival = arrival;
+        }
+    }
+
+    private final int capacity;
+    private final long maxAge;
+    private final ConcurrentHashMap<String, Entry> entries;
+    private final ConcurrentLinkedQueue<Entry> order;
+    private final AtomicInteger size;
+    private final AtomicInteger staleCount;
+    private final ReentrantLock maintenanceLock;
+    private final CopyOnWriteArrayList<Listener> listeners;
+
+    /**
+     * Prepares a new, empty, transaction pool.
+     *
+     * @param capacity The max number of pending transactions.
+     * @param maxAge   The max number of milliseconds a transaction may be
+     *                 pending before it's evicted.
+     * @throws IllegalArgumentException if the capacity or max age isn't
+     *                                  positive.
+     */
+    public Mempool(final int capacity, final long maxAge) throws IllegalArgumentException {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+
+        if (maxAge < 1)
+            throw new IllegalArgumentException("Invalid max age: " + maxAge);
+
+        this.capacity = capacity;
+        this.maxAge = maxAge;
+        this.entries = new ConcurrentHashMap<>();
+        this.order = new ConcurrentLinkedQueue<>();
+        this.size = new AtomicInteger(0);
+        this.staleCount = new AtomicInteger(0);
+        this.maintenanceLock = new ReentrantLock();
+        this.listeners = new CopyOnWriteArrayList<>();
+    }
+
+    /**
+     * Adds a listener for transactions entering and leaving the pool. The
+     * listener is told about all transactions already in the pool right
+     * away.
+     *
+     * @param listener The listener to add.
+     */
+    public void addListener(final Listener listener) {
+        listeners.add(listener);
+        for (Entry entry : order)
+            if (entries.get(entry.transaction.hash) == entry)
+                listener.onAdded(entry.transaction, entry.arrival);
+    }
+
+    /**
+     * Adds a transaction to the pool if it's not already pooled and there is
+     * room for it.
+     *
+     * @param transaction The transaction to add.
+     * @return Boolean true if the transaction was added, else false.
+     */
+    public boolean add(final Transaction transaction) {
+        evictExpired();
+
+        if (size.incrementAndGet() > capacity) {
+            size.decrementAndGet();
+            REJECTED_FULL.increment();
+            return false;
+        }
+
+        Entry entry = new Entry(transaction, System.currentTimeMillis());
+        if (entries.putIfAbsent(transaction.hash, entry) != null) {
+            size.decrementAndGet();
+            REJECTED_DUPLICATE.increment();
+            return false;
+        }
+
+        order.add(entry);
+        ADDED.increment();
+        for (Listener listener : listeners)
+            listener.onAdded(transaction, entry.arrival);
+
+        return true;
+    }
+
+    /**
+     * Returns the pending transaction with the given hash.
+     *
+     * @param hash The hash of the transaction.
+     * @return The transaction or null if there is no such pending transaction.
+     */
+    public Transaction get(final String hash) {
+        Entry entry = entries.get(hash);
+        return entry == null ? null : entry.transaction;
+    }
+
+    /**
+     * Tests whether there is a pending transaction with the given hash.
+     *
+     * @param hash The hash of the transaction.
+     * @return Boolean true if there is such a transaction, else false.
+     */
+    public boolean contains(final String hash) {
+        return entries.containsKey(hash);
+    }
+
+    /**
+     * Removes the pending transaction with the given hash.
+     *
+     * @param hash The hash of the transaction to remove.
+     * @return Boolean true if the transaction was pending, else false.
+     */
+    public boolean remove(final String hash) {
+        Entry entry = entries.remove(hash);
+        if (entry == null)
+            return false;
+
+        size.decrementAndGet();
+        REMOVED.increment();
+        for (Listener listener : listeners)
+            listener.onRemoved(entry.transaction);
+
+        if (staleCount.incrementAndGet() > Math.max(MIN_COMPACTION_COUNT, size.get()))
+            compact();
+
+        return true;
+    }
+
+    /**
+     * Removes all given transactions from the pool, matching them by hash.
+     *
+     * @param transactions The transactions to remove.
+     * @return The number of transactions that actually were removed.
+     */
+    public int removeAll(final Collection<Transaction> transactions) {
+        int count = 0;
+        for (Transaction transaction : transactions)
+            if (remove(transaction.hash))
+                count++;
+
+        return count;
+    }
+
+    /**
+     * Evicts all transactions that have been pending for longer than the max
+     * age. Since the transactions are ordered by arrival, only the head of the
+     * order queue needs to be inspected.
+     *
+     * @return The number of evicted transactions.
+     */
+    public int evictExpired() {
+        // Someone else is already doing the job.
+        if (!maintenanceLock.tryLock())
+            return 0;
+
+        try {
+            int count = 0;
+            long limit = System.currentTimeMillis() - maxAge;
+            Entry head;
+
+            while ((head = order.peek()) != null) {
+                if (entries.get(head.transaction.hash) != head) {
+                    order.poll();
+                    staleCount.decrementAndGet();
+                } else if (head.arrival < limit) {
+                    order.poll();
+                    if (entries.remove(head.transaction.hash, head)) {
+                        size.decrementAndGet();
+                        count++;
+                        for (Listener listener : listeners)
+                            listener.onRemoved(head.transaction);
+                    }
+                } else {
+                    break;
+                }
+            }
+
+            EVICTED.add(count);
+            return count;
+        } finally {
+            maintenanceLock.unlock();
+        }
+    }
+
+    /**
+     * Returns a snapshot of all pending transactions in arrival order.
+     *
+     * @return A list of transactions. May be empty but never null.
+     */
+    public List<Transaction> snapshot() {
+        List<Transaction> result = new ArrayList<>(size.get());
+        for (Entry entry : order)
+            if (entries.get(entry.transaction.hash) == entry)
+                result.add(entry.transaction);
+
+        return result;
+    }
+
+    /**
+     * Returns the number of pending transactions.
+     *
+     * @return The size of the pool.
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Tests whether there are any pending transactions.
+     *
+     * @return Boolean true if the pool is empty, else false.
+     */
+    public boolean isEmpty() {
+        return size.get() == 0;
+    }
+
+    /*
+     * Drops all removed transactions from the order queue. Removed entries
+     * are otherwise only dropped when they reach the head of the queue.
+     */
+    private void compact() {
+        if (!maintenanceLock.tryLock())
+            return;
+
+        try {
+            int[] removed = {0};
+            order.removeIf(entry -> {
+                if (entries.get(entry.transaction.hash) == entry)
+                    return false;
+
+                removed[0]++;
+                return true;
+            });
+
+            staleCount.addAndGet(-removed[0]);
+        } finally {
+            maintenanceLock.unlock();
+        }
+    }
+
+}
@@ -0,0 +1,140 @@
+package com.jayway.blockchain;
+
+import java.lang.IllegalArgumentException;
+import java.lang.String;
+import java.lang.System;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class knows how to build Merkle trees over the transactions of a
+ * block, and how to prove and verify that a transaction is part of a tree.
+ * <p>
+ * The leaves are the raw 32 byte transaction hashes. Each parent is the
+ * SHA-256 digest of its two children concatenated. If a level has an odd
+ * number of nodes, the last node is paired with itself. The root of a block
+ * without transactions is all zeros.
+ */
+public class MerkleHelper {
+    private static final int HASH_SIZE = 32;
+    private static final String EMPTY_ROOT = HashHelper.toHex(new byte[HASH_SIZE]);
+
+    /**
+     * Calculates the Merkle root of the given transactions.
+     *
+     * @param transactions The transactions, in block order.
+     * @return The Merkle root as a hex-string.
+     * @throws IllegalArgumentException if any transaction hash isn't a valid
+     *                                  SHA-256 hex-string.
+     */
+    public static String root(final List<Transaction> transactions) throws IllegalArgumentException {
+        if (transactions == null || transactions.isEmpty())
+            return EMPTY_ROOT;
+
+        byte[][] level = leaves(transactions);
+        while (level.length > 1)
+            level = parents(level);
+
+        return HashHelper.toHex(level[0]);
+    }
+
+    /**
+     * Builds a proof that the transaction with the given hash is part of the
+     * Merkle tree over the given transactions.
+     *
+     * @param blockIndex      The index of the block holding the transactions.
+     * @param transactions    The transactions, in block order.
+     * @param transactionHash The hash of the transaction to prove.
+     * @return The proof or null if the transaction isn't in the list.
+     * @throws IllegalArgumentException if any transaction hash isn't a valid
+     *                                  SHA-256 hex-string.
+     */
+    public static MerkleProof prove(final int blockIndex,
+                                    final List<Transaction> transactions,
+                                    final String transactionHash) throws IllegalArgumentException {
+
+        int position = -1;
+        for (int i = 0; i < transactions.size() && position < 0; i++)
+            if (transactions.get(i).hash.equals(transactionHash))
+                position = i;
+
+        if (position < 0)
+            return null;
+
+        List<MerkleProof.Step> path = new ArrayList<>();
+        byte[][] level = leaves(transactions);
+        while (level.length > 1) {
+            int sibling = position ^ 1;
+            if (sibling >= level.length)
+                sibling = position;
+
+            path.add(new MerkleProof.Step(HashHelper.toHex(level[sibling]), sibling < position));
+            level = parents(level);
+            position >>>= 1;
+        }
+
+        return new MerkleProof(blockIndex, transactionHash, HashHelper.toHex(level[0]), path);
+    }
+
+    /**
+     * Verifies that the given proof leads from its transaction hash to the
+     * given Merkle root.
+     *
+     * @param proof      The proof to verify.
+     * @param merkleRoot The expected Merkle root, e.g. from a block header.
+     * @return Boolean true if the proof holds, else false.
+     */
+    public static boolean verify(final MerkleProof proof, final String merkleRoot) {
+        try {
+            byte[] hash = HashHelper.fromHex(proof.transaction);
+            for (MerkleProof.Step step : proof.path)
+                hash = step.left ?
+                        combine(HashHelper.fromHex(step.hash), hash) :
+                        combine(hash, HashHelper.fromHex(step.hash));
+
+            return HashHelper.toHex(hash).equals(merkleRoot);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /*
+     * Decodes the transaction hashes into raw leaf hashes.
+     */
+    private static byte[][] leaves(final List<Transaction> transactions) {
+        byte[][] leaves = new byte[transactions.size()][];
+        for (int i = 0; i < leaves.length; i++) {
+            leaves[i] = HashHelper.fromHex(transactions.get(i).hash);
+            if (leaves[i].length != HASH_SIZE)
+                throw new IllegalArgumentException("Invalid hash: " + transactions.get(i).hash);
+        }
+
+        return leaves;
+    }
+
+    /*
+     * Hashes each pair of nodes into the next level of the tree.
+     */
+    private static byte[][] parents(final byte[][] level) {
+        byte[][] parents = new byte[(level.length + 1) / 2][];
+        for (int i = 0; i < parents.length; i++) {
+            byte[] left = level[2 * i];
+            byte[] right = 2 * i + 1 < level.length ? level[2 * i + 1] : left;
+            parents[i] = combine(left, right);
+        }
+
+        return parents;
+    }
+
+    /*
+     * Digests the concatenation of two hashes.
+     */
+    private static byte[] combine(final byte[] left, final byte[] right) {
+        byte[] both = new byte[left.length + right.length];
+        System.arraycopy(left, 0, both, 0, left.length);
+        System.arraycopy(right, 0, both, left.length, right.length);
+        return HashHelper.digest(both);
+    }
+
+}
@@ -0,0 +1,48 @@
+package com.jayway.blockchain;
+
+import java.lang.String;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *  This class represents a proof that a transaction is included in a block.
+ *  Hashing the transaction hash together with each of the sibling hashes in
+ *  the path, from the leaf up, yields the Merkle root of the block.
+ */
+public class MerkleProof {
+
+    /**
+     *  A sibling hash in the path and whether it goes to the left or to the
+     *  right of the hash computed so far.
+     */
+    public static class Step {
+        public final String hash;
+        public final boolean left;
+
+        public Step(final String hash, final boolean left) {
+            this.hash = hash;
+            this.left = left;
+        }
+    }
+
+    public final int blockIndex;
+    public final String transaction;
+    public final String merkleRoot;
+    public final List<Step> path;
+
+
+    public MerkleProof(final int blockIndex,
+                       final String transaction,
+                       final String merkleRoot,
+                       final List<Step> path) {
+
+        this.blockIndex = blockIndex;
+        this.transaction = transaction;
+        this.merkleRoot = merkleRoot;
+        this.path = new ArrayList<>();
+
+        if (path != null && !path.isEmpty())
+            this.path.addAll(path);
+    }
+
+}
@@ -0,0 +1,263 @@
+package com.jayway.blockchain;
+
+import java.lang.Double;
+import java.lang.IllegalArgumentException;
+import java.lang.Long;
+import java.lang.String;
+import java.lang.StringBuilder;
+import java.lang.System;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * This class keeps the runtime metrics of this node and knows how to expose
+ * them in the Prometheus text format. Counters and histograms are lock free
+ * and cheap enough to update on any hot path; gauges are sampled only when
+ * the metrics are scraped.
+ * <p>
+ * Metrics are identified by their name and an optional, even, number of label
+ * names and values. Asking for the same name and labels twice yields the same
+ * metric, so callers on hot paths should keep a reference to the metric
+ * rather than looking it up each time.
+ */
+public class Metrics {
+
+    /**
+     * Default latency buckets, in seconds.
+     */
+    public static final double[] LATENCY_BUCKETS = {
+            0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+    /**
+     * A monotonically increasing count.
+     */
+    public static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void add(final long amount) {
+            value.add(amount);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    /**
+     * A distribution of observed values over fixed buckets.
+     */
+    public static final class Histogram {
+        private final double[] bounds;
+        private final LongAdder[] counts;
+        private final DoubleAdder sum = new DoubleAdder();
+
+        private Histogram(final double[] bounds) {
+            this.bounds = bounds;
+            this.counts = new LongAdder[bounds.length + 1];
+            for (int i = 0; i < counts.length; i++)
+                counts[i] = new LongAdder();
+        }
+
+        public void observe(final double value) {
+            int bucket = Arrays.binarySearch(bounds, value);
+            counts[bucket < 0 ? -bucket - 1 : bucket].increment();
+            sum.add(value);
+        }
+
+        /**
+         * Observes the time passed since the given start.
+         *
+         * @param startNanos The start time, as given by {@link System#nanoTime()}.
+         */
+        public void observeSince(final long startNanos) {
+            observe((System.nanoTime() - startNanos) / 1e9);
+        }
+    }
+
+    private static final class Family {
+        final String type;
+        final String help;
+        final ConcurrentSkipListMap<String, Object> metrics = new ConcurrentSkipListMap<>();
+
+        Family(final String type, final String help) {
+            this.type = type;
+            this.help = help;
+        }
+    }
+
+    private static final ConcurrentHashMap<String, Family> FAMILIES = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the counter with the given name and labels, creating it if
+     * needed.
+     *
+     * @param name   The metric name.
+     * @param help   A short description of the metric.
+     * @param labels Label names and values, alternating.
+     * @return The counter.
+     */
+    public static Counter counter(final String name, final String help, final String... labels) {
+        return (Counter) family(name, "counter", help)
+                .metrics
+                .computeIfAbsent(labelsOf(labels), key -> new Counter());
+    }
+
+    /**
+     * Returns the histogram with the given name and labels, creating it with
+     * the given buckets if needed.
+     *
+     * @param name    The metric name.
+     * @param help    A short description of the metric.
+     * @param buckets The ascending upper bounds of the buckets.
+     * @param labels  Label names and values, alternating.
+     * @return The histogram.
+     */
+    public static Histogram histogram(final String name,
+                                      final String help,
+                                      final double[] buckets,
+                                      final String... labels) {
+
+        return (Histogram) family(name, "histogram", help)
+                .metrics
+                .computeIfAbsent(labelsOf(labels), key -> new Histogram(buckets));
+    }
+
+    /**
+     * Registers a gauge with the given name and labels. The value is sampled
+     * from the supplier each time the metrics are scraped. Registering a gauge
+     * again replaces the supplier.
+     *
+     * @param name   The metric name.
+     * @param help   A short description of the metric.
+     * @param value  Supplies the current value.
+     * @param labels Label names and values, alternating.
+     */
+    public static void gauge(final String name,
+                             final String help,
+                             final DoubleSupplier value,
+                             final String... labels) {
+
+        family(name, "gauge", help)
+                .metrics
+                .put(labelsOf(labels), value);
+    }
+
+    /**
+     * Renders all metrics in the Prometheus text exposition format.
+     *
+     * @return The metrics as text.
+     */
+    public static String scrape() {
+        StringBuilder builder = new StringBuilder(4096);
+        for (Map.Entry<String, Family> entry : new ConcurrentSkipListMap<>(FAMILIES).entrySet()) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            builder.append("# HELP ").append(name).append(' ').append(family.help).append('\n')
+                    .append("# TYPE ").append(name).append(' ').append(family.type).append('\n');
+
+            for (Map.Entry<String, Object> metric : family.metrics.entrySet()) {
+                String labels = metric.getKey();
+                Object value = metric.getValue();
+
+                if (value instanceof Counter) {
+                    sample(builder, name, labels, null, ((Counter) value).get());
+                } else if (value instanceof DoubleSupplier) {
+                    sample(builder, name, labels, null, ((DoubleSupplier) value).getAsDouble());
+                } else {
+                    Histogram histogram = (Histogram) value;
+                    long count = 0;
+                    for (int i = 0; i < histogram.counts.length; i++) {
+                        count += histogram.counts[i].sum();
+                        String bound = i < histogram.bounds.length ?
+                                Double.toString(histogram.bounds[i]) :
+                                "+Inf";
+                        sample(builder, name + "_bucket", labels, "le=\"" + bound + "\"", count);
+                    }
+
+                    sample(builder, name + "_sum", labels, null, histogram.sum.sum());
+                    sample(builder, name + "_count", labels, null, count);
+                }
+            }
+        }
+
+        return builder.toString();
+    }
+
+    /*
+     * Returns the family with the given name, creating it if needed.
+     */
+    private static Family family(final String name, final String type, final String help) {
+        Family family = FAMILIES.computeIfAbsent(name, key -> new Family(type, help));
+        if (!family.type.equals(type))
+            throw new IllegalArgumentException("Metric " + name + " is a " + family.type);
+
+        return family;
+    }
+
+    /*
+     * Renders the label names and values as a Prometheus label string.
+     */
+    private static String labelsOf(final String... labels) {
+        if (labels.length % 2 != 0)
+            throw new IllegalArgumentException("Expected label names and values in pairs");
+
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0)
+                builder.append(',');
+
+            builder.append(labels[i]).append("=\"").append(escape(labels[i + 1])).append('"');
+        }
+
+        return builder.toString();
+    }
+
+    /*
+     * Escapes a label value.
+     */
+    private static String escape(final String value) {
+        return value
+                .replace("\\", "\\\\")
+                .replace("\"", "\\\"")
+                .replace("\n", "\\n");
+    }
+
+    /*
+     * Appends one sample line.
+     */
+    private static void sample(final StringBuilder builder,
+                               final String name,
+                               final String labels,
+                               final String extraLabel,
+                               final double value) {
+
+        builder.append(name);
+        if (!labels.isEmpty() || extraLabel != null) {
+            builder.append('{').append(labels);
+            if (extraLabel != null)
+                builder.append(labels.isEmpty() ? "" : ",").append(extraLabel);
+
+            builder.append('}');
+        }
+
+        builder.append(' ');
+        if (value == (long) value)
+            builder.append(Long.toString((long) value));
+        else
+            builder.append(Double.toString(value));
+
+        builder.append('\n');
+    }
+
+}
@@ -0,0 +1,252 @@
+package com.jayway.blockchain;
+
+import java.lang.IllegalArgumentException;
+import java.lang.IllegalStateException;
+import java.lang.InterruptedException;
+import java.lang.String;
+import java.lang.System;
+import java.lang.Throwable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+/**
+ * This class knows how to search for a nonce that satisfies the difficulty
+ * constraints for a given raw block header. The nonce space is split across a
+ * pool of worker threads; worker {@code i} of {@code n} tests the nonces
+ * {@code i + 1, i + 1 + n, i + 1 + 2n, ...}. As soon as any worker finds a
+ * valid nonce all other workers are told to stop. A search may also be
+ * cancelled from the outside, e.g. when the header it's based on has gone
+ * stale.
+ */
+public class MiningEngine {
+    // The number of nonces each worker tests between looking for a reason to
+    // stop. Must be a power of two.
+    private static final int CHECK_INTERVAL = 4096;
+
+    private static final Metrics.Counter HASHES = Metrics.counter(
+            "blockchain_mining_hashes_total",
+            "Number of nonces tested, including abandoned searches");
+
+    /**
+     * Describes the outcome of a successful nonce search, including the hash
+     * rate of each worker, indexed by worker.
+     */
+    public static final class Result {
+        public final long nonce;
+        public final String hash;
+        public final long iterations;
+        public final long duration;
+        public final double[] hashRates;
+
+        private Result(final long nonce,
+                       final String hash,
+                       final long iterations,
+                       final long duration,
+                       final double[] hashRates) {
+
+            this.nonce = nonce;
+            this.hash = hash;
+            this.iterations = iterations;
+            this.duration = duration;
+            this.hashRates = hashRates;
+        }
+    }
+
+    private final int workerCount;
+    private final ExecutorService workerService;
+    private volatile double hashRate;
+    private volatile double[] hashRates;
+
+    /**
+     * Prepares a new mining engine with a fixed pool of worker threads.
+     *
+     * @param workerCount The number of threads to search the nonce space
+     *                    with. Must be at least one.
+     * @throws IllegalArgumentException if the worker count is less than one.
+     */
+    public MiningEngine(final int workerCount) throws IllegalArgumentException {
+        if (workerCount < 1)
+            throw new IllegalArgumentException("Invalid worker count: " + workerCount);
+
+        this.workerCount = workerCount;
+        this.workerService = Executors.newFixedThreadPool(workerCount);
+        this.hashRates = new double[workerCount];
+    }
+
+    /**
+     * Returns the number of worker threads in this engine.
+     *
+     * @return The worker count.
+     */
+    public int getWorkerCount() {
+        return workerCount;
+    }
+
+    /**
+     * Returns the combined hash rate of all workers during the last completed
+     * search.
+     *
+     * @return The hash rate in hashes per second.
+     */
+    public double getHashRate() {
+        return hashRate;
+    }
+
+    /**
+     * Returns the hash rate of each worker during the last completed search.
+     *
+     * @return The hash rates in hashes per second, indexed by worker.
+     */
+    public double[] getHashRates() {
+        return hashRates.clone();
+    }
+
+    /**
+     * Searches the nonce space for a nonce that, when decorating the given raw
+     * header, produces a hash that meets the given binary target.
+     * This method blocks the calling thread until a nonce is found. If the
+     * calling thread is interrupted while waiting, all workers are stopped.
+     *
+     * @param rawHeader  The raw unobscured block header.
+     * @param target     The target, as produced by {@link ProofOfWork#targetOf(int)}.
+     * @return The winning nonce and its hash.
+     * @throws InterruptedException  if the calling thread was interrupted
+     *                               before a nonce could be found.
+     * @throws IllegalStateException if a worker failed before a nonce could
+     *                               be found.
+     */
+    public Result search(final String rawHeader, final int[] target) throws InterruptedException {
+        return search(rawHeader, target, () -> false);
+    }
+
+    /**
+     * Searches the nonce space for a nonce that, when decorating the given raw
+     * header, produces a hash that meets the given binary target, unless the
+     * search is cancelled first. The workers poll the cancellation signal
+     * every {@value #CHECK_INTERVAL} nonces, so a cancelled search stops
+     * within a few milliseconds.
+     * This method blocks the calling thread until a nonce is found or the
+     * search is cancelled. If the calling thread is interrupted while
+     * waiting, all workers are stopped.
+     *
+     * @param rawHeader The raw unobscured block header.
+     * @param target    The target, as produced by {@link ProofOfWork#targetOf(int)}.
+     * @param cancelled Tells whether the search is no longer of interest,
+     *                  e.g. since the header it's based on is stale. Called
+     *                  concurrently from all worker threads.
+     * @return The winning nonce and its hash, or null if the search was
+     * cancelled.
+     * @throws InterruptedException  if the calling thread was interrupted
+     *                               before a nonce could be found.
+     * @throws IllegalStateException if a worker failed before a nonce could
+     *                               be found.
+     */
+    public Result search(final String rawHeader,
+                         final int[] target,
+                         final BooleanSupplier cancelled) throws InterruptedException {
+
+        AtomicBoolean stop = new AtomicBoolean(false);
+        AtomicReference<Result> winner = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+        List<Future<long[]>> reports = new ArrayList<>(workerCount);
+        long start = System.currentTimeMillis();
+
+        for (int i = 0; i < workerCount; i++) {
+            final long offset = i + 1;
+            reports.add(workerService.submit(() -> {
+                long workerStart = System.nanoTime();
+                long iterations = 0;
+
+                try {
+                    ProofOfWork proofOfWork = new ProofOfWork(rawHeader);
+                    for (long nonce = offset; ; nonce += workerCount) {
+                        iterations++;
+                        if (proofOfWork.test(nonce, target) && stop.compareAndSet(false, true)) {
+                            // Only the winner gets its hash string produced.
+                            winner.set(new Result(nonce, HashHelper.toHex(proofOfWork.digest()), 0, 0, null));
+                            break;
+                        }
+
+                        // Don't bother the shared state on every nonce.
+                        if ((iterations & (CHECK_INTERVAL - 1)) == 0) {
+                            if (stop.get())
+                                break;
+
+                            if (cancelled.getAsBoolean()) {
+                                stop.set(true);
+                                break;
+                            }
+                        }
+                    }
+                } finally {
+                    // Whichever way a worker ends, be it a win, a cancel or
+                    // a failure, the search is over.
+                    done.countDown();
+                    HASHES.add(iterations);
+                }
+
+                return new long[]{iterations, System.nanoTime() - workerStart};
+            }));
+        }
+
+        try {
+            done.await();
+        } finally {
+            // Either we have a winner, the search was cancelled, a worker
+            // failed or we were interrupted. Either way all workers must
+            // stop.
+            stop.set(true);
+        }
+
+        // Collect the per worker statistics. The workers have already been
+        // told to stop at this point, so this is expected to be fast.
+        long iterations = 0;
+        double rate = 0.0;
+        double[] rates = new double[workerCount];
+        Throwable failure = null;
+        for (int i = 0; i < workerCount; i++) {
+            try {
+                long[] statistics = reports.get(i).get();
+                rates[i] = statistics[1] > 0 ? statistics[0] * 1e9 / statistics[1] : 0.0;
+                iterations += statistics[0];
+                rate += rates[i];
+            } catch (ExecutionException e) {
+                failure = e.getCause();
+            }
+        }
+
+        hashRate = rate;
+        hashRates = rates;
+        Result result = winner.get();
+        if (result == null && failure != null)
+            throw new IllegalStateException("Mining worker failed", failure);
+
+        if (result == null)
+            return null;
+
+        return new Result(result.nonce,
+                result.hash,
+                iterations,
+                System.currentTimeMillis() - start,
+                rates.clone());
+    }
+
+    /**
+     * Stops all worker threads. Any ongoing search will never complete.
+     */
+    public void shutdown() {
+        workerService.shutdownNow();
+    }
+
+}
@@ -1,92 +1,257 @@
 package com.jayway.blockchain;
 
-import com.google.gson.Gson;
-
 import java.io.IOException;
+import java.lang.Integer;
 import java.lang.String;
+import java.lang.System;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.HttpUrl;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 
+/**
+ * This class knows how to talk to our peers. All requests are sent
+ * asynchronously and the results are delivered through futures, which are
+ * completed on one of the HTTP client's threads. A failing request, be it
+ * one that couldn't be sent or one that got an error response, never
+ * completes its future exceptionally, but with an empty result.
+ * <p>
+ * Each peer has a bounded number of outstanding requests. Any request beyond
+ * that limit is rejected right away, so that a slow or dead peer can't pile
+ * up work for us. The outcome of each request feeds the peer's
+ * {@link PeerScores score}. The limits, the connection pool and the timeouts
+ * can be tuned through the following system properties:
+ * <pre>
+ *     blockchain.http.maxRequests        (default 64)
+ *     blockchain.http.maxRequestsPerPeer (default 8)
+ *     blockchain.http.maxQueuedPerPeer   (default 256)
+ *     blockchain.http.maxIdleConnections (default 16)
+ *     blockchain.http.keepAliveMillis    (default 300000)
+ *     blockchain.http.connectTimeout     (default 2000, milliseconds)
+ *     blockchain.http.readTimeout        (default 5000, milliseconds)
+ *     blockchain.http.writeTimeout       (default 5000, milliseconds)
+ * </pre>
+ * WebSocket channels to peers are opened on a client of their own, as an
+ * open channel holds on to a dispatcher thread for as long as it lives and
+ * would otherwise eat up the request limits. Idle channels are pinged every
+ * {@code blockchain.channels.pingMillis} (default 15000) milliseconds, so
+ * that dead peers are noticed.
+ */
 public class NetworkHelper {
 
     private static final class InstanceHolder {
         static final MediaType CONTENT_TYPE_JSON = MediaType.parse("application/json");
-        static final OkHttpClient CLIENT = new OkHttpClient();
+        static final int MAX_QUEUED_PER_PEER = Integer.getInteger("blockchain.http.maxQueuedPerPeer", 256);
+        static final ConcurrentHashMap<String, AtomicInteger> OUTSTANDING = new ConcurrentHashMap<>();
+        static final OkHttpClient CLIENT = createClient();
+        static final OkHttpClient CHANNEL_CLIENT = createChannelClient(CLIENT);
     }
 
     /**
-     * Sends the provided JSON as a synchronous POST request to the given URL.
-     * No validation is made on the JSON. JSON content type headers are
+     * Sends the provided JSON as an asynchronous POST request to the given
+     * URL. No validation is made on the JSON. JSON content type headers are
      * automagically attached.
      *
      * @param url     The URL to send the POST request to.
      * @param payload The POST request payload.
-     * @return The response body as a string.
+     * @return A future delivering the response body as a string. Empty on
+     * failure.
      */
-    public static String post(final String url, final Object payload) {
-        try {
-            return InstanceHolder.CLIENT
-                    .newCall(new Request.Builder()
-                            .url(url)
-                            .post(RequestBody.create(
-                                    InstanceHolder.CONTENT_TYPE_JSON,
-                                    payload instanceof String ?
-                                            (String) payload :
-                                            new Gson().toJson(payload)))
-                            .build())
-                    .execute()
-                    .body()
-                    .string();
-        } catch (IOException e) {
-            return "";
-        }
+    public static CompletableFuture<String> post(final String url, final Object payload) {
+        return send(new Request.Builder()
+                .url(url)
+                .post(RequestBody.create(
+                        InstanceHolder.CONTENT_TYPE_JSON,
+                        payload instanceof String ?
+                                (String) payload :
+                                JsonHelper.toJson(payload)))
+                .build())
+                .thenApply(NetworkHelper::toText);
     }
 
     /**
-     * Sends the provided JSON as a synchronous PUT request to the given URL.
-     * No validation is made on the JSON. JSON content type headers are
-     * automagically attached.
+     * Sends an asynchronous GET request to the given URL, asking for a
+     * response in the {@link BinaryCodec} format.
+     *
+     * @param url The URL to send the GET request to.
+     * @return A future delivering the response body as bytes. Empty on
+     * failure.
+     */
+    public static CompletableFuture<byte[]> getBinary(final String url) {
+        return send(new Request.Builder()
+                .url(url)
+                .header("Accept", BinaryCodec.MEDIA_TYPE)
+                .get()
+                .build());
+    }
+
+    /**
+     * Sends an asynchronous GET request to the given URL.
      *
-     * @param url     The URL to send the PUT request to.
-     * @param payload The PUT request payload.
-     * @return The response body as a string.
+     * @param url The URL to send the GET request to.
+     * @return A future delivering the response body as a string. Empty on
+     * failure.
      */
-    public static String put(final String url, final Object payload) {
-        try {
-            return InstanceHolder.CLIENT
-                    .newCall(new Request.Builder()
-                            .url(url)
-                            .put(RequestBody.create(
-                                    InstanceHolder.CONTENT_TYPE_JSON,
-                                    payload instanceof String ?
-                                            (String) payload :
-                                            new Gson().toJson(payload)))
-                            .build())
-                    .execute()
-                    .body()
-                    .string();
-        } catch (IOException e) {
-            return "";
+    public static CompletableFuture<String> get(final String url) {
+        return send(new Request.Builder()
+                .url(url)
+                .get()
+                .build())
+                .thenApply(NetworkHelper::toText);
+    }
+
+    /**
+     * Opens a WebSocket channel to the given URL. The outcome, and any
+     * messages, are delivered to the listener on the channel's own thread.
+     *
+     * @param url      The URL to open the channel to, e.g.
+     *                 "http://192.168.1.2:5050/channel".
+     * @param listener The listener to notify.
+     * @return The channel, which may not be open yet.
+     */
+    public static WebSocket openChannel(final String url, final WebSocketListener listener) {
+        return InstanceHolder.CHANNEL_CLIENT.newWebSocket(new Request.Builder()
+                .url(url)
+                .build(), listener);
+    }
+
+    /*
+     * Enqueues the request, unless the receiving peer already has too many
+     * outstanding requests, and delivers the response body as bytes. The
+     * latency and outcome of each request is recorded per peer.
+     */
+    private static CompletableFuture<byte[]> send(final Request request) {
+        CompletableFuture<byte[]> future = new CompletableFuture<>();
+        HttpUrl url = request.url();
+        String peer = url.host() + ":" + url.port();
+        AtomicInteger outstanding = InstanceHolder.OUTSTANDING.computeIfAbsent(
+                peer,
+                key -> new AtomicInteger());
+
+        if (outstanding.incrementAndGet() > InstanceHolder.MAX_QUEUED_PER_PEER) {
+            outstanding.decrementAndGet();
+            System.out.printf("Dropped request to %s: Too many outstanding requests\n", url);
+            Metrics.counter("blockchain_peer_dropped_total",
+                    "Number of requests dropped due to too many outstanding requests",
+                    "peer", peer).increment();
+            future.complete(new byte[0]);
+            return future;
         }
+
+        long start = System.nanoTime();
+        InstanceHolder.CLIENT
+                .newCall(request)
+                .enqueue(new Callback() {
+                    @Override
+                    public void onFailure(final Call call, final IOException e) {
+                        outstanding.decrementAndGet();
+                        record(peer, start, false);
+                        future.complete(new byte[0]);
+                    }
+
+                    @Override
+                    public void onResponse(final Call call, final Response response) {
+                        outstanding.decrementAndGet();
+                        try (ResponseBody body = response.body()) {
+                            // An error page is no result. Don't hand it to
+                            // the caller as if it was one.
+                            if (!response.isSuccessful()) {
+                                record(peer, start, false);
+                                future.complete(new byte[0]);
+                                return;
+                            }
+
+                            byte[] bytes = body.bytes();
+                            record(peer, start, true);
+                            future.complete(bytes);
+                        } catch (IOException e) {
+                            record(peer, start, false);
+                            future.complete(new byte[0]);
+                        }
+                    }
+                });
+
+        return future;
     }
 
-    public static String get(final String url) {
-        try {
-            return InstanceHolder.CLIENT
-                    .newCall(new Request.Builder()
-                            .url(url)
-                            .get()
-                            .build())
-                    .execute()
-                    .body()
-                    .string();
-        } catch (IOException e) {
-            return "";
+    /*
+     * Records the latency and, on failure, the failure of a request to the
+     * given peer, both in the metrics and in the peer's score.
+     */
+    private static void record(final String peer, final long start, final boolean success) {
+        long elapsed = System.nanoTime() - start;
+        Metrics.histogram("blockchain_peer_request_seconds",
+                "Latency of requests to peers, including failed ones",
+                Metrics.LATENCY_BUCKETS,
+                "peer", peer).observe(elapsed / 1e9);
+
+        if (success) {
+            PeerScores.recordSuccess(peer, elapsed);
+        } else {
+            PeerScores.recordFailure(peer);
+            Metrics.counter("blockchain_peer_failures_total",
+                    "Number of failed requests to peers",
+                    "peer", peer).increment();
         }
     }
-}
 
+    /*
+     * Decodes a response body as UTF-8 text.
+     */
+    private static String toText(final byte[] bytes) {
+        return new String(bytes, UTF_8);
+    }
+
+    /*
+     * Creates the shared HTTP client, as configured by the system properties.
+     */
+    private static OkHttpClient createClient() {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(Integer.getInteger("blockchain.http.maxRequests", 64));
+        dispatcher.setMaxRequestsPerHost(Integer.getInteger("blockchain.http.maxRequestsPerPeer", 8));
+
+        return new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(
+                        Integer.getInteger("blockchain.http.maxIdleConnections", 16),
+                        Integer.getInteger("blockchain.http.keepAliveMillis", 300_000),
+                        TimeUnit.MILLISECONDS))
+                .connectTimeout(Integer.getInteger("blockchain.http.connectTimeout", 2_000), TimeUnit.MILLISECONDS)
+                .readTimeout(Integer.getInteger("blockchain.http.readTimeout", 5_000), TimeUnit.MILLISECONDS)
+                .writeTimeout(Integer.getInteger("blockchain.http.writeTimeout", 5_000), TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /*
+     * Creates the client for the WebSocket channels, sharing the connection
+     * pool and timeouts with the given client but not its dispatcher.
+     */
+    private static OkHttpClient createChannelClient(final OkHttpClient client) {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(PeerChannels.MAX_CHANNELS);
+        dispatcher.setMaxRequestsPerHost(PeerChannels.MAX_CHANNELS);
+
+        return client.newBuilder()
+                .dispatcher(dispatcher)
+                .pingInterval(Integer.getInteger("blockchain.channels.pingMillis", 15_000), TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+}
@@ -1,12 +1,15 @@
 package com.jayway.blockchain;
 
-import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
 
 import java.io.IOException;
 
+import java.lang.Double;
 import java.lang.Math;
 import java.lang.String;
 import java.lang.SecurityException;
+import java.lang.System;
+import java.lang.Thread;
 
 import java.net.InetAddress;
 import java.net.MalformedURLException;
@@ -15,16 +18,26 @@ import java.net.SocketException;
 import java.net.UnknownHostException;
 import java.net.URL;
 
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Random;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
@@ -32,6 +45,14 @@ import static java.nio.charset.StandardCharsets.UTF_8;
  *  This class is responsible for handling the peer relations for this node. It
  *  knows how to register new peers and how to register itself as a peer at
  *  another node.
+ *  <p>
+ *  The known peers are kept in a concurrent set and written to disk behind
+ *  the scenes. Any number of changes within a short delay are coalesced into
+ *  one write, which replaces the peers file atomically. Whether a URL points
+ *  at this node is remembered for a while per host, to spare the DNS.
+ *  <p>
+ *  Peers are picked at random, but fast and reliable peers are picked more
+ *  often than slow and failing ones, as told by their {@link PeerScores}.
  */
 public class NodeHelper {
 
@@ -39,16 +60,52 @@ public class NodeHelper {
     private static final class InstanceHolder {
         static final int MAX_PEERS_COUNT = 5;
         static final String CACHE_FILE = "./root_nodes.json";
+        static final long SAVE_DELAY_MILLIS = 1_000;
+        static final long SELF_CHECK_TTL_MILLIS = 60_000;
+        static final int SELF_CHECK_CACHE_SIZE = 1_024;
         static final NodeHelper INSTANCE = new NodeHelper();
     }
 
+    private static final class Pick implements Comparable<Pick> {
+        final String peer;
+        final double key;
 
-    private HashSet<String> nodes = new HashSet<>();
-    private String myAddress = "";
+        Pick(final String peer, final double key) {
+            this.peer = peer;
+            this.key = key;
+        }
+
+        @Override
+        public int compareTo(final Pick other) {
+            return Double.compare(key, other.key);
+        }
+    }
+
+    private static final class SelfCheck {
+        final boolean isMe;
+        final long expires;
+
+        SelfCheck(final boolean isMe, final long expires) {
+            this.isMe = isMe;
+            this.expires = expires;
+        }
+    }
+
+
+    private final Set<String> nodes = ConcurrentHashMap.newKeySet();
+    private final ConcurrentHashMap<String, SelfCheck> selfChecks = new ConcurrentHashMap<>();
+    private final AtomicBoolean saveScheduled = new AtomicBoolean(false);
+    private final ScheduledExecutorService saveService;
+    private volatile String myAddress = "";
 
 
     // Hidden ctor
     private NodeHelper() {
+        saveService = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "peer-saver");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
 
@@ -76,12 +133,15 @@ public class NodeHelper {
         InstanceHolder.INSTANCE.nodes.addAll(lines);
         InstanceHolder.INSTANCE.nodes.remove(myUrl);
 
-        // Register ourselves at some peers.
+        // Register ourselves at some peers, all at once, and wait for them to
+        // respond before we continue.
         List<String> peers = getSomePeers();
-        for (String peer : peers) {
-            String[] peersOfPeer = registerAt(peer);
-            InstanceHolder.INSTANCE.nodes.addAll(Arrays.asList(peersOfPeer));
-        }
+        List<CompletableFuture<String[]>> registrations = new ArrayList<>(peers.size());
+        for (String peer : peers)
+            registrations.add(registerAt(peer));
+
+        for (CompletableFuture<String[]> registration : registrations)
+            InstanceHolder.INSTANCE.nodes.addAll(Arrays.asList(registration.join()));
     }
 
     /**
@@ -98,14 +158,7 @@ public class NodeHelper {
             return false;
 
         if (InstanceHolder.INSTANCE.nodes.add(nodeUrl)) {
-            try {
-                Files.write(
-                        Paths.get(InstanceHolder.CACHE_FILE),
-                        InstanceHolder.INSTANCE.nodes,
-                        UTF_8);
-            } catch (SecurityException | IOException e) {
-                // Forgive and forget...
-            }
+            scheduleSave();
             return true;
         }
         
@@ -120,92 +173,83 @@ public class NodeHelper {
      */
     public static boolean unregister(final String nodeUrl) {
         if (InstanceHolder.INSTANCE.nodes.remove(nodeUrl)) {
-            try {
-                Files.write(
-                        Paths.get(InstanceHolder.CACHE_FILE),
-                        InstanceHolder.INSTANCE.nodes,
-                        UTF_8);
-            } catch (SecurityException | IOException e) {
-                // Forgive and forget...
-            }
+            scheduleSave();
             return true;
         }
         
         return false;
     }
     
+    /**
+     *  Checks whether the provided node URL is in the internal set of known
+     *  peers.
+     *
+     *  @param nodeUrl  The URL of the peer.
+     *  @return Boolean true if the given URL exists in the cache, or false.
+     */
+    public static boolean isRegistered(final String nodeUrl) {
+        return InstanceHolder.INSTANCE.nodes.contains(nodeUrl);
+    }
+    
     /**
      *  Triggers a registration process. We will post our public address (the
      *  one injected in the {@link #init(String)} method) to the node at the
      *  provided url.
      *
      *  @param nodeUrl  The URL of the node we should register ourself at.
-     *  @return A set of peers of the node we registered at.
+     *  @return A future delivering the set of peers of the node we registered
+     *  at. The set is empty if the registration failed.
      */
-    public static String[] registerAt(final String nodeUrl) {
+    public static CompletableFuture<String[]> registerAt(final String nodeUrl) {
         if (isThisMe(nodeUrl))
-            return new String[0];
+            return CompletableFuture.completedFuture(new String[0]);
 
         HashMap<String, String> data = new HashMap<>();
         data.put("address", InstanceHolder.INSTANCE.myAddress);
         
-        Gson gson = new Gson();
-        String meJson = gson.toJson(data);
-        String peersJson = NetworkHelper.post(nodeUrl, meJson);
-        return gson.fromJson(peersJson, String[].class);
+        return NetworkHelper.post(nodeUrl, data).thenApply(peersJson -> {
+            try {
+                String[] peersOfPeer = JsonHelper.gson().fromJson(peersJson, String[].class);
+                return peersOfPeer != null ? peersOfPeer : new String[0];
+            } catch (JsonSyntaxException e) {
+                return new String[0];
+            }
+        });
     }
 
     /**
-     *  Picks a random sub set of our peers.
+     *  Picks a random sub set of our peers, favouring the fast and reliable
+     *  ones and leaving out the quarantined ones.
      *
-     *  @return A list of peer URLs. The list may contain 1 to
+     *  @return A list of peer URLs. The list may contain up to
      *  {@code MAX_PEERS_COUNT} items.
      */    
     public static List<String> getSomePeers() {
-        Random random = new Random();
-        int someCount = random.nextInt(InstanceHolder.MAX_PEERS_COUNT) + 1;
-
-        if (InstanceHolder.INSTANCE.nodes.size() <= someCount)
-            return new ArrayList<>(InstanceHolder.INSTANCE.nodes);
-
-        ArrayList<String> pool = new ArrayList<>(InstanceHolder.INSTANCE.nodes);
-        ArrayList<String> result = new ArrayList<>(someCount);
-        
-        for (int i = 0; i < someCount; i++) {
-            int index = random.nextInt(pool.size());
-            String peer = pool.remove(index);
-            result.add(peer);
-        }
-        
-        return result;
+        return sample(ThreadLocalRandom.current().nextInt(InstanceHolder.MAX_PEERS_COUNT) + 1);
     }
     
     /**
-     *  Picks a random sub set of our peers.
+     *  Picks a random sub set of our peers, favouring the fast and reliable
+     *  ones and leaving out the quarantined ones.
      *
      *  @param count    The maximum number of peers to pick.
-     *  @return A list of peer URLs. The list may contain 1 to {@code count}
+     *  @return A list of peer URLs. The list may contain up to {@code count}
      *  items.
      */    
     public static List<String> getSomePeers(final int count) {
-        int someCount = Math.max(0, count);
-        ArrayList<String> pool = new ArrayList<>(InstanceHolder.INSTANCE.nodes);
-
-        if (pool.size() <= someCount)
-            return pool;
-
-        ArrayList<String> result = new ArrayList<>();
-        Random random = new Random();
-        
-        for (int i = 0; i < someCount; i++) {
-            int index = random.nextInt(pool.size());
-            String peer = pool.remove(index);
-            result.add(peer);
-        }
-        
-        return result;
+        return sample(Math.max(0, count));
     }
     
+    /**
+     *  Gets the public address of this node, as injected in the
+     *  {@link #init(String)} method.
+     *
+     *  @return The URL of this node on the network.
+     */
+    public static String getMyAddress() {
+        return InstanceHolder.INSTANCE.myAddress;
+    }
+
     /**
      *  Gets all currently known peers.
      *
@@ -216,13 +260,121 @@ public class NodeHelper {
     }
 
 
+    /**
+     *  Writes the known peers to disk right away, unless there are no
+     *  unsaved changes. Meant to be called when shutting down.
+     */
+    public static void flush() {
+        if (InstanceHolder.INSTANCE.saveScheduled.get())
+            save();
+    }
+
+
+    /*
+     *  Picks up to count peers at random, weighted by their scores, without
+     *  copying all peers first. Each peer draws a random key, biased by its
+     *  weight, and the peers with the highest keys win (weighted reservoir
+     *  sampling). Quarantined peers are never picked.
+     */
+    private static List<String> sample(final int count) {
+        ArrayList<String> result = new ArrayList<>(count);
+        if (count == 0)
+            return result;
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        PriorityQueue<Pick> reservoir = new PriorityQueue<>(count + 1);
+        for (String peer : InstanceHolder.INSTANCE.nodes) {
+            double weight = PeerScores.weightOf(PeerScores.keyOf(peer));
+            if (weight <= 0.0)
+                continue;
+
+            // Equivalent to u^(1/w), but without underflowing for small
+            // weights.
+            double key = Math.log(1.0 - random.nextDouble()) / weight;
+            if (reservoir.size() < count) {
+                reservoir.add(new Pick(peer, key));
+            } else if (key > reservoir.peek().key) {
+                reservoir.poll();
+                reservoir.add(new Pick(peer, key));
+            }
+        }
+
+        for (Pick pick : reservoir)
+            result.add(pick.peer);
+
+        return result;
+    }
+
+    /*
+     *  Schedules a write of the known peers, unless one is already scheduled.
+     *  Any changes made until the write happens are included in it.
+     */
+    private static void scheduleSave() {
+        if (InstanceHolder.INSTANCE.saveScheduled.compareAndSet(false, true))
+            InstanceHolder.INSTANCE.saveService.schedule(
+                    NodeHelper::save,
+                    InstanceHolder.SAVE_DELAY_MILLIS,
+                    TimeUnit.MILLISECONDS);
+    }
+
+    /*
+     *  Writes the known peers to a temporary file and moves it in place of
+     *  the peers file, so that a crash never leaves a half written file.
+     */
+    private static synchronized void save() {
+        // Let go of the flag first, so that any change made during the write
+        // schedules another one.
+        InstanceHolder.INSTANCE.saveScheduled.set(false);
+
+        Path target = Paths.get(InstanceHolder.CACHE_FILE);
+        Path temp = Paths.get(InstanceHolder.CACHE_FILE + ".tmp");
+        try {
+            Files.write(temp, new ArrayList<>(InstanceHolder.INSTANCE.nodes), UTF_8);
+            try {
+                Files.move(temp, target,
+                        StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (SecurityException | IOException e) {
+            // Forgive and forget...
+        }
+    }
+
     /*
-     *  Tests whether the provided URL may point at this node in any way.
+     *  Tests whether the provided URL may point at this node in any way. The
+     *  verdict is cached per host for a while.
      */
     private static boolean isThisMe(final String nodeUrl) {
+        String host;
+        try {
+            host = new URL(nodeUrl).getHost();
+        } catch (MalformedURLException e) {
+            // Make assumptions, just to be on the safe side.
+            return true;
+        }
+
+        long now = System.currentTimeMillis();
+        SelfCheck check = InstanceHolder.INSTANCE.selfChecks.get(host);
+        if (check == null || check.expires < now) {
+            // Don't let random hosts grow the cache forever.
+            if (InstanceHolder.INSTANCE.selfChecks.size() >= InstanceHolder.SELF_CHECK_CACHE_SIZE)
+                InstanceHolder.INSTANCE.selfChecks.clear();
+
+            check = new SelfCheck(isThisHost(host), now + InstanceHolder.SELF_CHECK_TTL_MILLIS);
+            InstanceHolder.INSTANCE.selfChecks.put(host, check);
+        }
+
+        return check.isMe;
+    }
+
+    /*
+     *  Tests whether the provided host name may point at this machine.
+     */
+    private static boolean isThisHost(final String host) {
         try {
-            URL url = new URL(nodeUrl);
-            InetAddress inetAddress = InetAddress.getByName(url.getHost());
+            InetAddress inetAddress = InetAddress.getByName(host);
 
             if (inetAddress.isAnyLocalAddress() || inetAddress.isLoopbackAddress())
                 return true;
@@ -230,8 +382,7 @@ public class NodeHelper {
             if (NetworkInterface.getByInetAddress(inetAddress) != null)
                 return true;
 
-        } catch (MalformedURLException |
-                 UnknownHostException |
+        } catch (UnknownHostException |
                  SecurityException |
                  SocketException e) {
             // Make assumptions, just to be on the safe side.
@@ -0,0 +1,458 @@
+package com.jayway.blockchain;
+
+import com.google.gson.JsonParseException;
+
+import java.lang.Boolean;
+import java.lang.Integer;
+import java.lang.Long;
+import java.lang.String;
+import java.lang.System;
+import java.lang.Thread;
+import java.lang.Throwable;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+
+import ratpack.websocket.WebSocketClose;
+import ratpack.websocket.WebSocketHandler;
+import ratpack.websocket.WebSocketMessage;
+
+/**
+ * This class keeps long-lived WebSocket channels to our peers, over which
+ * gossip is sent as {@link ChannelFrame frames} instead of as one HTTP
+ * request per message. We only send our own frames on channels we opened
+ * ourselves, to the address we know the peer by, as the hello a peer opens a
+ * channel to us with proves nothing about who it is. Channels opened to us
+ * only carry the peer's frames and our replies to them, and are only
+ * accepted from registered peers. Requests and responses are matched by id,
+ * so any number of them may be in flight on the same channel at once. The round-trip time of each request, and any request
+ * that goes unanswered, feed the peer's {@link PeerScores score}, just like
+ * REST requests do.
+ * <p>
+ * Channels are opened lazily: the first attempt to send a frame to a peer
+ * without a channel starts opening one and fails, telling the caller to fall
+ * back to the REST API. So does any attempt while the channel isn't open
+ * yet, or after it has closed. A peer that can't be reached over a channel,
+ * e.g. as it doesn't support channels, isn't tried again for a while.
+ * <p>
+ * Channels can be tuned through the following system properties:
+ * <pre>
+ *     blockchain.channels.enabled (default true)
+ *     blockchain.channels.max     (default 64)
+ * </pre>
+ */
+public class PeerChannels {
+
+    /**
+     * The max number of channels, in both directions, kept at any time.
+     */
+    public static final int MAX_CHANNELS = Integer.getInteger("blockchain.channels.max", 64);
+
+    private static final boolean ENABLED =
+            Boolean.parseBoolean(System.getProperty("blockchain.channels.enabled", "true"));
+
+    private static final Set<String> TYPES = new HashSet<>(Arrays.asList(
+            ChannelFrame.HELLO, ChannelFrame.INVENTORY, ChannelFrame.REQUEST, ChannelFrame.RESPONSE));
+
+    // How long to stick to REST after failing to open a channel to a peer.
+    private static final long RETRY_DELAY_MILLIS = 60_000;
+
+    // How long to wait for a response before giving up on a request.
+    private static final long REQUEST_TIMEOUT_MILLIS = 10_000;
+
+    /**
+     * Handles the inventory and request frames received on any channel.
+     * Any frame returned is sent back as a reply on the same channel.
+     */
+    public interface FrameHandler {
+        ChannelFrame onFrame(final String peer, final ChannelFrame frame);
+    }
+
+    private abstract static class Channel {
+        final String peer;
+        volatile boolean open;
+
+        Channel(final String peer) {
+            this.peer = peer;
+        }
+
+        abstract boolean send(final String text);
+    }
+
+    private static final class OutboundChannel extends Channel {
+        volatile WebSocket socket;
+
+        OutboundChannel(final String peer) {
+            super(peer);
+        }
+
+        @Override
+        boolean send(final String text) {
+            WebSocket socket = this.socket;
+            return socket != null && socket.send(text);
+        }
+    }
+
+    private static final class InboundChannel extends Channel {
+        final ratpack.websocket.WebSocket socket;
+
+        InboundChannel(final String peer, final ratpack.websocket.WebSocket socket) {
+            super(peer);
+            this.socket = socket;
+            this.open = true;
+        }
+
+        @Override
+        boolean send(final String text) {
+            if (!socket.isOpen())
+                return false;
+
+            socket.send(text);
+            return true;
+        }
+    }
+
+    private static final class PendingRequest {
+        final Channel channel;
+        final long start;
+        final CompletableFuture<ChannelFrame> future;
+
+        PendingRequest(final Channel channel) {
+            this.channel = channel;
+            this.start = System.nanoTime();
+            this.future = new CompletableFuture<>();
+        }
+    }
+
+    private final String self;
+    private final FrameHandler handler;
+    private final ConcurrentHashMap<String, Channel> channels;
+    private final Set<Channel> inboundChannels;
+    private final ConcurrentHashMap<String, Long> retryAt;
+    private final ConcurrentHashMap<Long, PendingRequest> pending;
+    private final AtomicLong requestIds;
+    private final ScheduledExecutorService timeoutService;
+
+    /**
+     * Prepares a new, empty, set of peer channels.
+     *
+     * @param self    The URL of this node, as announced to our peers.
+     * @param handler Handles the inventory and request frames we receive,
+     *                and provides the replies to them. Called on the
+     *                channel's thread.
+     */
+    public PeerChannels(final String self, final FrameHandler handler) {
+        this.self = self;
+        this.handler = handler;
+        this.channels = new ConcurrentHashMap<>();
+        this.inboundChannels = ConcurrentHashMap.newKeySet();
+        this.retryAt = new ConcurrentHashMap<>();
+        this.pending = new ConcurrentHashMap<>();
+        this.requestIds = new AtomicLong(0);
+        this.timeoutService = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "channel-timeouts");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Metrics.gauge("blockchain_channels_open",
+                "Number of open WebSocket channels to peers",
+                this::countOpen);
+    }
+
+    /**
+     * Sends a frame to the given peer, if there is an open channel to it.
+     *
+     * @param peer  The URL of the peer.
+     * @param frame The frame to send.
+     * @return Boolean true if the frame was sent, else false, in which case
+     * the caller should fall back to the REST API.
+     */
+    public boolean send(final String peer, final ChannelFrame frame) {
+        Channel channel = openChannelTo(peer);
+        return channel != null && send(channel, frame);
+    }
+
+    /**
+     * Requests the blocks and transactions with the given hashes from the
+     * given peer, if there is an open channel to it.
+     *
+     * @param peer              The URL of the peer.
+     * @param blockHashes       The hashes of the requested blocks.
+     * @param transactionHashes The hashes of the requested transactions.
+     * @return A future delivering the response frame, or null if the request
+     * couldn't be sent, in which case the caller should fall back to the REST
+     * API. The future delivers null if no response arrives in time.
+     */
+    public CompletableFuture<ChannelFrame> request(final String peer,
+                                                   final List<String> blockHashes,
+                                                   final List<String> transactionHashes) {
+
+        Channel channel = openChannelTo(peer);
+        if (channel == null)
+            return null;
+
+        long id = requestIds.incrementAndGet();
+        PendingRequest request = new PendingRequest(channel);
+        pending.put(id, request);
+        if (!send(channel, ChannelFrame.request(id, blockHashes, transactionHashes))) {
+            pending.remove(id);
+            return null;
+        }
+
+        // Give up on the request if it isn't responded to in time, no matter
+        // what other traffic follows. Completing an already completed
+        // future is a no-op.
+        timeoutService.schedule(() -> {
+            if (pending.remove(id) != null)
+                fail(request);
+        }, REQUEST_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+
+        return request.future;
+    }
+
+    /**
+     * Creates a Ratpack handler for channels opened to us by our peers. The
+     * peer must introduce itself with a hello frame, naming a registered
+     * peer, before anything else. In return we open our own channel to the
+     * named peer, unless we already have one.
+     *
+     * @return The WebSocket handler.
+     */
+    public WebSocketHandler<?> inbound() {
+        return new WebSocketHandler<AtomicReference<Channel>>() {
+            @Override
+            public AtomicReference<Channel> onOpen(final ratpack.websocket.WebSocket socket) {
+                if (!ENABLED || countChannels() >= MAX_CHANNELS)
+                    socket.close(1013, "No channels available");
+
+                return new AtomicReference<>();
+            }
+
+            @Override
+            public void onMessage(final WebSocketMessage<AtomicReference<Channel>> message) {
+                ChannelFrame frame = parse(message.getText());
+                if (frame == null)
+                    return;
+
+                AtomicReference<Channel> reference = message.getOpenResult();
+                Channel channel = reference.get();
+                if (channel == null) {
+                    if (!ChannelFrame.HELLO.equals(frame.type) || frame.sender == null) {
+                        message.getConnection().close(1008, "Expected hello");
+                        return;
+                    }
+
+                    if (!NodeHelper.isRegistered(frame.sender)) {
+                        message.getConnection().close(1008, "Unknown peer");
+                        return;
+                    }
+
+                    // Anyone can claim to be a registered peer, so we only
+                    // reply on this channel, and talk to the peer over our
+                    // own channel to the address we know it by.
+                    Channel inbound = new InboundChannel(frame.sender, message.getConnection());
+                    reference.set(inbound);
+                    inboundChannels.add(inbound);
+                    count("received", frame.type);
+                    openChannelTo(frame.sender);
+                    return;
+                }
+
+                receive(channel, frame);
+            }
+
+            @Override
+            public void onClose(final WebSocketClose<AtomicReference<Channel>> close) {
+                Channel channel = close.getOpenResult().get();
+                if (channel != null)
+                    closed(channel);
+            }
+        };
+    }
+
+    /*
+     * Returns the open channel to the given peer, or null if there is none,
+     * in which case one is opened for next time, if allowed.
+     */
+    private Channel openChannelTo(final String peer) {
+        Channel channel = channels.get(peer);
+        if (channel != null)
+            return channel.open ? channel : null;
+
+        if (!ENABLED || countChannels() >= MAX_CHANNELS)
+            return null;
+
+        Long retry = retryAt.get(peer);
+        if (retry != null && retry > System.currentTimeMillis())
+            return null;
+
+        OutboundChannel outbound = new OutboundChannel(peer);
+        if (channels.putIfAbsent(peer, outbound) != null)
+            return null;
+
+        outbound.socket = NetworkHelper.openChannel(peer + "/channel", new WebSocketListener() {
+            @Override
+            public void onOpen(final WebSocket socket, final Response response) {
+                outbound.socket = socket;
+                outbound.open = true;
+                retryAt.remove(peer);
+                send(outbound, ChannelFrame.hello(self));
+            }
+
+            @Override
+            public void onMessage(final WebSocket socket, final String text) {
+                ChannelFrame frame = parse(text);
+                if (frame != null)
+                    receive(outbound, frame);
+            }
+
+            @Override
+            public void onClosing(final WebSocket socket, final int code, final String reason) {
+                socket.close(1000, null);
+            }
+
+            @Override
+            public void onClosed(final WebSocket socket, final int code, final String reason) {
+                closed(outbound);
+            }
+
+            @Override
+            public void onFailure(final WebSocket socket, final Throwable t, final Response response) {
+                // Only give up on the channel if we never got through to
+                // the peer, it may not support channels. A channel that
+                // breaks counts against the peer's score.
+                if (!outbound.open)
+                    retryAt.put(peer, System.currentTimeMillis() + RETRY_DELAY_MILLIS);
+                else
+                    PeerScores.recordFailure(PeerScores.keyOf(peer));
+
+                closed(outbound);
+            }
+        });
+
+        return null;
+    }
+
+    /*
+     * Encodes and sends a frame on the given channel.
+     */
+    private boolean send(final Channel channel, final ChannelFrame frame) {
+        if (!channel.send(JsonHelper.toJson(frame)))
+            return false;
+
+        count("sent", frame.type);
+        return true;
+    }
+
+    /*
+     * Hands a received frame to whoever is waiting for it.
+     */
+    private void receive(final Channel channel, final ChannelFrame frame) {
+        count("received", frame.type);
+        if (ChannelFrame.RESPONSE.equals(frame.type)) {
+            // Only accept responses on the channel the request was sent on.
+            PendingRequest request = pending.get(frame.id);
+            if (request != null && request.channel == channel && pending.remove(frame.id, request)) {
+                PeerScores.recordSuccess(PeerScores.keyOf(channel.peer), System.nanoTime() - request.start);
+                request.future.complete(frame);
+            }
+        } else if (!ChannelFrame.HELLO.equals(frame.type)) {
+            ChannelFrame reply = handler.onFrame(channel.peer, frame);
+            if (reply != null)
+                send(channel, reply);
+        }
+    }
+
+    /*
+     * Forgets a closed channel and gives up on any requests sent on it.
+     */
+    private void closed(final Channel channel) {
+        channel.open = false;
+        channels.remove(channel.peer, channel);
+        inboundChannels.remove(channel);
+
+        Iterator<Map.Entry<Long, PendingRequest>> iterator = pending.entrySet().iterator();
+        while (iterator.hasNext()) {
+            PendingRequest request = iterator.next().getValue();
+            if (request.channel == channel) {
+                iterator.remove();
+                fail(request);
+            }
+        }
+    }
+
+    /*
+     * Gives up on a request that wasn't responded to, counting it against
+     * the peer's score.
+     */
+    private void fail(final PendingRequest request) {
+        PeerScores.recordFailure(PeerScores.keyOf(request.channel.peer));
+        request.future.complete(null);
+    }
+
+    /*
+     * Decodes a frame, or returns null if it's malformed or of a type we
+     * don't know.
+     */
+    private ChannelFrame parse(final String text) {
+        ChannelFrame frame;
+        try {
+            frame = JsonHelper.gson().fromJson(text, ChannelFrame.class);
+        } catch (JsonParseException e) {
+            return null;
+        }
+
+        return frame != null && TYPES.contains(frame.type) ? frame : null;
+    }
+
+    /*
+     * Counts the channels, in both directions, open or not.
+     */
+    private int countChannels() {
+        return channels.size() + inboundChannels.size();
+    }
+
+    /*
+     * Counts the open channels.
+     */
+    private int countOpen() {
+        int count = 0;
+        for (Channel channel : channels.values())
+            if (channel.open)
+                count++;
+
+        for (Channel channel : inboundChannels)
+            if (channel.open)
+                count++;
+
+        return count;
+    }
+
+    /*
+     * Counts a sent or received frame.
+     */
+    private static void count(final String direction, final String type) {
+        Metrics.counter("blockchain_channel_frames_total",
+                "Number of frames sent and received on peer channels",
+                "direction", direction,
+                "type", type).increment();
+    }
+
+}
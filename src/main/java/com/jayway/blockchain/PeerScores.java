@@ -0,0 +1,178 @@
+package com.jayway.blockchain;
+
+import java.lang.Math;
+import java.lang.String;
+import java.lang.System;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class keeps score of how well our peers respond, based on the actual
+ * requests we send them. Each peer has an exponentially weighted moving
+ * average of its round-trip time and of its error rate. Scores that haven't
+ * been updated for a while are considered stale and fall back to the neutral
+ * score of an unknown peer.
+ * <p>
+ * A peer that fails several requests in a row is put in quarantine, during
+ * which it isn't picked for any traffic. The quarantine doubles with each
+ * further failure, up to a max. The first successful request lifts it.
+ * <p>
+ * Peers are identified by "host:port".
+ */
+public class PeerScores {
+
+    // How much each new sample counts in the moving averages.
+    private static final double ALPHA = 0.2;
+
+    // The round-trip time assumed for a peer we know nothing about.
+    private static final double NEUTRAL_RTT_MILLIS = 100.0;
+
+    // Lower round-trip times don't make a peer any more attractive.
+    private static final double MIN_RTT_MILLIS = 1.0;
+
+    // Every healthy peer gets at least this much weight, so that slow
+    // peers still see some traffic and the mesh stays connected.
+    private static final double EXPLORATION_WEIGHT = 0.1;
+
+    private static final long STALE_AFTER_MILLIS = 60_000;
+    private static final int FAILURES_BEFORE_QUARANTINE = 3;
+    private static final long MIN_QUARANTINE_MILLIS = 1_000;
+    private static final long MAX_QUARANTINE_MILLIS = 300_000;
+    private static final int MAX_CACHED_KEYS = 4_096;
+
+    private static final class Score {
+        double rttMillis = NEUTRAL_RTT_MILLIS;
+        double errorRate;
+        long updated;
+        int consecutiveFailures;
+        long quarantinedUntil;
+    }
+
+    private static final ConcurrentHashMap<String, Score> SCORES = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, String> KEYS = new ConcurrentHashMap<>();
+
+    static {
+        Metrics.gauge("blockchain_peer_quarantined",
+                "Number of peers currently in quarantine",
+                PeerScores::countQuarantined);
+    }
+
+    /**
+     * Records a successful request to the given peer.
+     *
+     * @param peer     The peer as "host:port".
+     * @param rttNanos The round-trip time of the request.
+     */
+    public static void recordSuccess(final String peer, final long rttNanos) {
+        Score score = SCORES.computeIfAbsent(peer, key -> new Score());
+        synchronized (score) {
+            score.rttMillis += ALPHA * (rttNanos / 1e6 - score.rttMillis);
+            score.errorRate -= ALPHA * score.errorRate;
+            score.updated = System.currentTimeMillis();
+            score.consecutiveFailures = 0;
+            score.quarantinedUntil = 0;
+        }
+    }
+
+    /**
+     * Records a failed request to the given peer, quarantining the peer if
+     * it has failed too many times in a row.
+     *
+     * @param peer The peer as "host:port".
+     */
+    public static void recordFailure(final String peer) {
+        Score score = SCORES.computeIfAbsent(peer, key -> new Score());
+        synchronized (score) {
+            long now = System.currentTimeMillis();
+            score.errorRate += ALPHA * (1.0 - score.errorRate);
+            score.updated = now;
+            score.consecutiveFailures++;
+
+            int excess = score.consecutiveFailures - FAILURES_BEFORE_QUARANTINE;
+            if (excess >= 0) {
+                long quarantine = Math.min(MAX_QUARANTINE_MILLIS,
+                        MIN_QUARANTINE_MILLIS << Math.min(excess, 20));
+
+                if (score.quarantinedUntil < now)
+                    System.out.printf("Quarantined peer %s for %d ms: %d failures in a row\n",
+                            peer, quarantine, score.consecutiveFailures);
+
+                score.quarantinedUntil = now + quarantine;
+            }
+        }
+    }
+
+    /**
+     * Calculates the weight of the given peer when picking peers to send
+     * traffic to. An unknown peer, or one with a stale score, weighs
+     * {@code 1 + EXPLORATION_WEIGHT}. Faster and more reliable peers weigh
+     * more, slower and less reliable ones less. A quarantined peer weighs
+     * nothing.
+     *
+     * @param peer The peer as "host:port".
+     * @return The weight of the peer. Never negative.
+     */
+    public static double weightOf(final String peer) {
+        Score score = SCORES.get(peer);
+        if (score == null)
+            return 1.0 + EXPLORATION_WEIGHT;
+
+        synchronized (score) {
+            long now = System.currentTimeMillis();
+            if (score.quarantinedUntil > now)
+                return 0.0;
+
+            if (now - score.updated > STALE_AFTER_MILLIS)
+                return 1.0 + EXPLORATION_WEIGHT;
+
+            double speed = NEUTRAL_RTT_MILLIS / Math.max(MIN_RTT_MILLIS, score.rttMillis);
+            return (1.0 - score.errorRate) * speed + EXPLORATION_WEIGHT;
+        }
+    }
+
+    /**
+     * Derives the "host:port" key of the peer with the given URL.
+     *
+     * @param peerUrl The URL of the peer.
+     * @return The key of the peer, or the URL itself if it's malformed.
+     */
+    public static String keyOf(final String peerUrl) {
+        String key = KEYS.get(peerUrl);
+        if (key != null)
+            return key;
+
+        try {
+            URL url = new URL(peerUrl);
+            int port = url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+            key = url.getHost() + ":" + port;
+        } catch (MalformedURLException e) {
+            key = peerUrl;
+        }
+
+        // Don't let random URLs grow the cache forever.
+        if (KEYS.size() >= MAX_CACHED_KEYS)
+            KEYS.clear();
+
+        KEYS.put(peerUrl, key);
+        return key;
+    }
+
+    /*
+     * Counts the peers currently in quarantine.
+     */
+    private static int countQuarantined() {
+        long now = System.currentTimeMillis();
+        int count = 0;
+        for (Score score : SCORES.values())
+            synchronized (score) {
+                if (score.quarantinedUntil > now)
+                    count++;
+            }
+
+        return count;
+    }
+
+}
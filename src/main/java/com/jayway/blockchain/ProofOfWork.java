@@ -0,0 +1,235 @@
+package com.jayway.blockchain;
+
+import java.lang.IllegalArgumentException;
+import java.lang.Integer;
+import java.lang.Math;
+import java.lang.String;
+import java.lang.System;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * This class knows how to test nonces against a fixed raw block header without
+ * allocating any objects. The SHA-256 state of the raw header (the midstate)
+ * is computed once, when the instance is created. Each nonce test will then
+ * only process the few trailing bytes of the header, the nonce digits and the
+ * padding, all in reusable buffers. The resulting digest is compared to a
+ * binary target, without ever producing a hex string.
+ * <p>
+ * Instances of this class are NOT thread safe. Each mining worker is expected
+ * to have its own instance.
+ */
+public class ProofOfWork {
+    private static final int[] K = {
+            0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+            0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+            0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+            0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+            0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+            0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+            0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+            0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2
+    };
+
+    private static final int[] INITIAL_STATE = {
+            0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a, 0x510e527f, 0x9b05688c, 0x1f83d9ab, 0x5be0cd19
+    };
+
+    private final int[] midstate;
+    private final int[] state;
+    private final int[] words;
+    private final byte[] buffer;
+    private final byte[] digits;
+    private final int tailLength;
+    private final long headerLength;
+
+    /**
+     * Prepares a new proof-of-work tester for the given raw block header.
+     *
+     * @param rawHeader The raw, unobscured block header. The nonce is
+     *                  appended to it for each test.
+     */
+    public ProofOfWork(final String rawHeader) {
+        byte[] header = rawHeader.getBytes(UTF_8);
+        int fullBlocks = header.length / 64;
+
+        midstate = INITIAL_STATE.clone();
+        state = new int[8];
+        words = new int[64];
+        buffer = new byte[128];
+        digits = new byte[20];
+        headerLength = header.length;
+        tailLength = header.length - fullBlocks * 64;
+
+        for (int i = 0; i < fullBlocks; i++)
+            compress(midstate, header, i * 64);
+
+        System.arraycopy(header, fullBlocks * 64, buffer, 0, tailLength);
+    }
+
+    /**
+     * Builds a binary target from a number of required leading zero bits. A
+     * digest meets the target if it's, as an unsigned 256 bit integer, less
+     * than or equal to the target.
+     *
+     * @param zeroBits The number of leading zero bits a digest must have.
+     * @return The corresponding target as eight big-endian integers.
+     * @throws IllegalArgumentException if the bit count is out of range.
+     */
+    public static int[] targetOf(final int zeroBits) throws IllegalArgumentException {
+        if (zeroBits < 0 || zeroBits > 256)
+            throw new IllegalArgumentException("Invalid zero bits count: " + zeroBits);
+
+        int[] target = new int[8];
+        for (int i = 0; i < 8; i++) {
+            int bits = Math.min(32, Math.max(0, zeroBits - i * 32));
+            target[i] = bits == 32 ? 0 : -1 >>> bits;
+        }
+
+        return target;
+    }
+
+    /**
+     * Tests whether the given digest meets the given target.
+     *
+     * @param digest The 32 byte digest to test.
+     * @param target The target, as produced by {@link #targetOf(int)}.
+     * @return Boolean true if the digest meets the target, else false.
+     */
+    public static boolean meetsTarget(final byte[] digest, final int[] target) {
+        if (digest == null || digest.length != 32)
+            return false;
+
+        for (int i = 0; i < 8; i++) {
+            int word = (digest[i * 4] & 0xff) << 24 |
+                    (digest[i * 4 + 1] & 0xff) << 16 |
+                    (digest[i * 4 + 2] & 0xff) << 8 |
+                    (digest[i * 4 + 3] & 0xff);
+
+            int result = Integer.compareUnsigned(word, target[i]);
+            if (result != 0)
+                return result < 0;
+        }
+
+        return true;
+    }
+
+    /**
+     * Tests whether the raw header decorated with the given nonce produces a
+     * digest that meets the given target. The digest is kept until the next
+     * call to this method and can be retrieved with {@link #digest()}.
+     *
+     * @param nonce  The nonce to test. Must not be negative.
+     * @param target The target, as produced by {@link #targetOf(int)}.
+     * @return Boolean true if the digest meets the target, else false.
+     */
+    public boolean test(final long nonce, final int[] target) {
+        hash(nonce);
+        for (int i = 0; i < 8; i++) {
+            int result = Integer.compareUnsigned(state[i], target[i]);
+            if (result != 0)
+                return result < 0;
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns a copy of the digest produced by the last call to
+     * {@link #test(long, int[])}.
+     *
+     * @return The 32 byte SHA-256 digest.
+     */
+    public byte[] digest() {
+        byte[] digest = new byte[32];
+        for (int i = 0; i < 8; i++) {
+            digest[i * 4] = (byte) (state[i] >>> 24);
+            digest[i * 4 + 1] = (byte) (state[i] >>> 16);
+            digest[i * 4 + 2] = (byte) (state[i] >>> 8);
+            digest[i * 4 + 3] = (byte) state[i];
+        }
+
+        return digest;
+    }
+
+    /*
+     * Hashes the trailing header bytes, the decimal nonce digits and the
+     * SHA-256 padding on top of the midstate. The result ends up in the state
+     * buffer.
+     */
+    private void hash(final long nonce) {
+        // Render the nonce digits back to front.
+        int start = digits.length;
+        long value = nonce;
+        do {
+            digits[--start] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+
+        int digitCount = digits.length - start;
+        int length = tailLength + digitCount;
+        int blocks = length + 9 > 64 ? 2 : 1;
+        int end = blocks * 64;
+        long bitLength = (headerLength + digitCount) * 8;
+
+        System.arraycopy(digits, start, buffer, tailLength, digitCount);
+        buffer[length] = (byte) 0x80;
+        for (int i = length + 1; i < end - 8; i++)
+            buffer[i] = 0;
+        for (int i = 0; i < 8; i++)
+            buffer[end - 1 - i] = (byte) (bitLength >>> (i * 8));
+
+        System.arraycopy(midstate, 0, state, 0, 8);
+        for (int i = 0; i < blocks; i++)
+            compress(state, buffer, i * 64);
+    }
+
+    /*
+     * The SHA-256 compression function. Processes one 64 byte block of data,
+     * starting at the given offset, into the given state.
+     */
+    private void compress(final int[] h, final byte[] data, final int offset) {
+        int[] w = words;
+        for (int i = 0; i < 16; i++) {
+            int j = offset + i * 4;
+            w[i] = (data[j] & 0xff) << 24 |
+                    (data[j + 1] & 0xff) << 16 |
+                    (data[j + 2] & 0xff) << 8 |
+                    (data[j + 3] & 0xff);
+        }
+
+        for (int i = 16; i < 64; i++) {
+            int s0 = Integer.rotateRight(w[i - 15], 7) ^ Integer.rotateRight(w[i - 15], 18) ^ (w[i - 15] >>> 3);
+            int s1 = Integer.rotateRight(w[i - 2], 17) ^ Integer.rotateRight(w[i - 2], 19) ^ (w[i - 2] >>> 10);
+            w[i] = w[i - 16] + s0 + w[i - 7] + s1;
+        }
+
+        int a = h[0], b = h[1], c = h[2], d = h[3], e = h[4], f = h[5], g = h[6], k = h[7];
+        for (int i = 0; i < 64; i++) {
+            int s1 = Integer.rotateRight(e, 6) ^ Integer.rotateRight(e, 11) ^ Integer.rotateRight(e, 25);
+            int ch = (e & f) ^ (~e & g);
+            int t1 = k + s1 + ch + K[i] + w[i];
+            int s0 = Integer.rotateRight(a, 2) ^ Integer.rotateRight(a, 13) ^ Integer.rotateRight(a, 22);
+            int maj = (a & b) ^ (a & c) ^ (b & c);
+            int t2 = s0 + maj;
+            k = g;
+            g = f;
+            f = e;
+            e = d + t1;
+            d = c;
+            c = b;
+            b = a;
+            a = t1 + t2;
+        }
+
+        h[0] += a;
+        h[1] += b;
+        h[2] += c;
+        h[3] += d;
+        h[4] += e;
+        h[5] += f;
+        h[6] += g;
+        h[7] += k;
+    }
+
+}
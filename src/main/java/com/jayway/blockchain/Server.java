@@ -1,11 +1,50 @@
 package com.jayway.blockchain;
 
+import com.google.gson.Gson;
+
+import io.netty.buffer.Unpooled;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.lang.IllegalStateException;
+import java.lang.Integer;
+import java.lang.Iterable;
+import java.lang.Math;
+import java.lang.NumberFormatException;
+import java.lang.Runtime;
+import java.lang.String;
+import java.lang.StringBuilder;
+import java.lang.System;
+import java.lang.Thread;
+import java.net.URL;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
-
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
+
+import ratpack.exec.Promise;
 import ratpack.handling.Context;
-import ratpack.jackson.Jackson;
+import ratpack.http.ResponseChunks;
+import ratpack.http.TypedData;
 import ratpack.server.RatpackServer;
+import ratpack.stream.Streams;
+import ratpack.util.MultiValueMap;
+import ratpack.websocket.WebSockets;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 
 /**
@@ -21,16 +60,37 @@ public class Server {
      */
     public static void main(String... args) throws Exception {
         NodeHelper.init(args[0]);
-        Server impl = new Server();
+
+        // Keep the blocks of each node apart, even if several nodes run on
+        // the same machine.
+        URL url = new URL(args[0]);
+        int port = url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+        BlockStore store = BlockStore.open(Paths.get("./blocks_" + port));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            NodeHelper.flush();
+            try {
+                store.close();
+            } catch (IOException e) {
+                // Forgive and forget...
+            }
+        }));
+
+        Server impl = new Server(store);
 
         RatpackServer.start(server -> server.handlers(chain -> chain
+                .all(Server::timeRequest)
                 .path("transactions", context -> context.byMethod(method -> method
-                        .get(() -> impl.debug_servePendingTransactions(context))
+                        .get(() -> impl.serveTransactions(context))
                         .post(() -> impl.recordTransaction(context))))
                 .path("blocks", context -> context.byMethod(method -> method
                         .get(() -> impl.serveBlocks(context))
                         .post(() -> impl.validateBlock(context))
                         .put(() -> impl.debug_mineBlock(context))))
+                .get("height", impl::serveHeight)
+                .get("proof", impl::serveProof)
+                .post("inventory", impl::receiveInventory)
+                .get("channel", impl::openChannel)
+                .get("metrics", Server::serveMetrics)
                 .path("nodes", context -> context.byMethod(method -> method
                         .get(() -> impl.debug_servePeers(context))
                         .post(() -> impl.registerPeer(context))
@@ -39,23 +99,55 @@ public class Server {
     }
 
 
+    private static final String CONTENT_TYPE_JSON = "application/json";
+    private static final String CONTENT_TYPE_NDJSON = "application/x-ndjson";
+    private static final int GOSSIP_BATCH_SIZE = 1000;
+    private static final long GOSSIP_BATCH_DELAY = 50;
+    private static final int INVENTORY_CAPACITY = 100_000;
+    private static final int INVENTORY_FETCH_SIZE = 64;
+    private static final int SYNC_PEERS_COUNT = 8;
+    private static final String CONTENT_TYPE_METRICS = "text/plain; version=0.0.4; charset=utf-8";
+    private static final Set<String> ROUTES = new HashSet<>(Arrays.asList(
+            "transactions", "blocks", "height", "proof", "inventory", "channel", "metrics", "nodes"));
+
+    // The body of a peer (un)registration request.
+    private static final class Registration {
+        String address;
+    }
+
     private final Blockchain blockchain;
     private final Blockchain.OnBlockMinedListener miningListener;
+    private final GossipBatcher transactionGossip;
+    private final InventoryTracker inventory;
+    private final ChainSynchronizer synchronizer;
+    private final PeerChannels channels;
+
+    // Verifying blocks and transactions is expensive. It's done on these
+    // threads rather than on the event loop, which must never be blocked.
+    private final ExecutorService verifyService;
 
 
     // Hidden constructor
-    private Server() {
-        blockchain = new Blockchain();
+    private Server(final BlockStore store) {
+        verifyService = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+            Thread thread = new Thread(runnable, "verifier");
+            thread.setDaemon(true);
+            return thread;
+        });
+        blockchain = new Blockchain(store);
+        inventory = new InventoryTracker(INVENTORY_CAPACITY);
+        synchronizer = new ChainSynchronizer(blockchain);
+        channels = new PeerChannels(NodeHelper.getMyAddress(), this::handleFrame);
+        transactionGossip = new GossipBatcher(GOSSIP_BATCH_SIZE, GOSSIP_BATCH_DELAY,
+                (peer, batch) -> announce(Collections.singletonList(peer),
+                        Collections.emptyList(), hashesOf(batch)));
         miningListener = new Blockchain.OnBlockMinedListener() {
             @Override
             public void onBlockMined(final Block block) {
-                // Propagate the new block.
-                List<String> peers = NodeHelper.getSomePeers();
-                for (String peer : peers)
-                    NetworkHelper.post(peer + "/blocks", block);
-
-                // Maybe start mining again.
-                blockchain.mine(Server.this.miningListener);
+                // Announce the new block.
+                announce(NodeHelper.getSomePeers(),
+                        Collections.singletonList(BlockHelper.hashBlock(block)),
+                        Collections.emptyList());
             }
         };
 
@@ -63,28 +155,74 @@ public class Server {
     }
 
     /**
-     * Serves a set of blocks to the request described by the given context.
+     * Serves a range of blocks to the request described by the given context.
+     * The range is described by the "from" (inclusive, defaults to 0), "to"
+     * (exclusive, defaults to the height of the blockchain) and "limit" query
+     * parameters. The legacy "index" parameter is treated as "from". If the
+     * "headers" parameter is "true" only the block headers are served. If
+     * one or more "hash" parameters are given, only the blocks with those
+     * hashes are served, in no particular order.
+     * <p>
+     * The blocks are streamed one by one as chunked output, in the binary
+     * format if the requester accepts it, as newline delimited JSON if the
+     * requester asks for it ("format=ndjson" or an "application/x-ndjson"
+     * Accept header), else as a JSON array.
      *
      * @param ratpackContext The context providing the request metrics.
      */
     private void serveBlocks(final Context ratpackContext) {
-        String indexString = ratpackContext
+        MultiValueMap<String, String> query = ratpackContext
                 .getRequest()
-                .getQueryParams()
-                .get("index");
+                .getQueryParams();
 
-        // Get all blocks on top of the one with the requested
-        // index, or all blocks if no index is provided
+        // Get the requested blocks, the requested range of blocks, or all
+        // blocks if nothing specific is requested.
         List<Block> blocks;
-        if (indexString == null) {
-            blocks = blockchain.getBlocks();
+        boolean headersOnly = "true".equals(query.get("headers"));
+        List<String> hashes = query.getAll("hash");
+        if (hashes != null && !hashes.isEmpty()) {
+            blocks = new ArrayList<>(hashes.size());
+            for (String hash : hashes) {
+                Block block = blockchain.getBlock(hash);
+                if (block != null)
+                    blocks.add(block);
+            }
         } else {
-            int index = Integer.valueOf(indexString);
-            blocks = blockchain.getBlocks(index);
+            try {
+                String fromString = query.get("from");
+                int from = parseInt(fromString != null ? fromString : query.get("index"), 0);
+                int to = parseInt(query.get("to"), Integer.MAX_VALUE);
+                int limit = parseInt(query.get("limit"), Integer.MAX_VALUE);
+                blocks = blockchain.getBlocks(from, (int) Math.min(to, (long) from + limit));
+            } catch (NumberFormatException e) {
+                ratpackContext.getResponse().status(400).send(e.getMessage());
+                return;
+            }
+        }
+
+        // Serve the blocks to the requester. Nothing but the current block is
+        // encoded at any given time.
+        if (!headersOnly && acceptsBinary(ratpackContext)) {
+            ratpackContext.render(ResponseChunks.bufferChunks(BinaryCodec.MEDIA_TYPE,
+                    Streams.publish(chunks(blocks,
+                            BinaryCodec.encodeListPrefix(blocks.size()),
+                            i -> BinaryCodec.encodeListItem(blocks.get(i)),
+                            null))
+                            .map(Unpooled::wrappedBuffer)));
+            return;
         }
 
-        // Serve the blocks to the requester
-        ratpackContext.render(Jackson.json(blocks));
+        Gson gson = JsonHelper.gson();
+        IntFunction<String> json = headersOnly ?
+                i -> gson.toJson(new BlockHeader(blocks.get(i))) :
+                i -> gson.toJson(blocks.get(i));
+
+        if (acceptsNdjson(ratpackContext))
+            ratpackContext.render(ResponseChunks.stringChunks(CONTENT_TYPE_NDJSON,
+                    Streams.publish(chunks(blocks, null, i -> json.apply(i) + "\n", null))));
+        else
+            ratpackContext.render(ResponseChunks.stringChunks(CONTENT_TYPE_JSON,
+                    Streams.publish(chunks(blocks, "[", i -> i == 0 ? json.apply(i) : "," + json.apply(i), "]"))));
     }
 
     /**
@@ -94,92 +232,440 @@ public class Server {
      * the new block still isn't valid it will be discarded, otherwise appended
      * to our now complete blockchain. When a block is added to the blockchain,
      * any corresponding transactions will be removed from our transactions
-     * cache. Any ongoing mining process will be canceled.
+     * cache. Any ongoing mining process will move on to the new tip by
+     * itself. The block is validated off the event loop and the request is
+     * responded to once that's done.
      *
      * @param ratpackContext The context providing the request metrics.
      */
     private void validateBlock(final Context ratpackContext) {
-        // Stop mining
-        blockchain.stopMining();
-
         ratpackContext
-                .parse(Jackson.jsonNode())
-                .then(jsonNode -> {
-                    // Release the HTTP request.
-                    ratpackContext.getResponse().status(200).send();
+                .getRequest()
+                .getBody()
+                .then(body -> {
+                    Block block;
+                    try {
+                        block = isBinary(ratpackContext) ?
+                                BinaryCodec.decodeBlock(body.getBytes()) :
+                                JsonHelper.fromJson(body.getInputStream(), Block.class);
+                    } catch (IllegalArgumentException e) {
+                        block = null;
+                    }
 
-                    // If we already have this block in our blockchain we
-                    // don't want to propagate it (to avoid resonance).
-                    String json = jsonNode.toString();
-                    Block block = BlockHelper.parseBlock(json);
-                    if (!blockchain.getBlocks(block.index).isEmpty())
+                    if (block == null) {
+                        ratpackContext.getResponse().status(400).send("Invalid block");
                         return;
+                    }
 
-                    // We don't have this block; propagate it in the network.
-                    List<String> peers = NodeHelper.getSomePeers();
-                    for (String peer : peers)
-                        NetworkHelper.post(peer + "/blocks", block);
-
-                    // Try to append the new block to our blockchain. A failure
-                    // may be an indication on missing blocks. Fallback to a
-                    // sync and then retry again.
-                    if (!blockchain.appendBlocks(block))
-                        if (synchronizeBlockchain())
-                            blockchain.appendBlocks(block);
+                    Block received = block;
+                    respondWhenDone(ratpackContext, () -> handleBlock(received));
                 });
     }
 
     /**
-     * Synchronizes our version of the blockchain with a random peer of ours.
+     * Validates a block received from a peer and, if it's new to us, appends
+     * it to our blockchain and announces it further. Blocks the calling
+     * thread while validating, so it must not be called on the event loop.
      *
-     * @return Boolean true if the synchronziation could be performed, else
-     * boolean false.
+     * @param block The received block.
      */
-    private boolean synchronizeBlockchain() {
-        List<String> peers = NodeHelper.getSomePeers(1);
-        if (peers == null || peers.isEmpty())
-            return true;
+    private void handleBlock(final Block block) {
+        // If we already have this block in our blockchain we don't want to
+        // announce it (to avoid resonance). Nor do we want any blocks that
+        // overlap our blockchain.
+        String hash = BlockHelper.hashBlock(block);
+        if (blockchain.containsBlock(hash) ||
+                block.index < blockchain.getHeight())
+            return;
+
+        // Try to append the new block to our blockchain. A failure may be an
+        // indication on missing blocks. Fallback to a sync and then retry
+        // again, once the sync is done. Only blocks we could use are
+        // announced in the network.
+        List<String> announcement = Collections.singletonList(hash);
+        if (blockchain.appendBlocks(block))
+            announce(NodeHelper.getSomePeers(), announcement, Collections.emptyList());
+        else
+            synchronizeBlockchain().thenAcceptAsync(success -> {
+                if (success && blockchain.appendBlocks(block))
+                    announce(NodeHelper.getSomePeers(), announcement, Collections.emptyList());
+            }, verifyService);
+    }
 
-        Block[] missingBlocks = BlockHelper.parseBlocks(
-                NetworkHelper.get(peers.get(0) + "/blocks"));
+    /**
+     * Serves a Merkle proof that a transaction is included in a block. The
+     * block is given by its index in the "block" query parameter and the
+     * transaction by its hash in the "transaction" query parameter.
+     *
+     * @param ratpackContext The context providing the request metrics.
+     */
+    private void serveProof(final Context ratpackContext) {
+        MultiValueMap<String, String> query = ratpackContext
+                .getRequest()
+                .getQueryParams();
+
+        String transactionHash = query.get("transaction");
+        List<Block> blocks;
+        try {
+            int index = parseInt(query.get("block"), -1);
+            blocks = index < 0 || transactionHash == null ?
+                    null :
+                    blockchain.getBlocks(index, index + 1);
+        } catch (NumberFormatException e) {
+            blocks = null;
+        }
+
+        if (blocks == null) {
+            ratpackContext.getResponse().status(400).send("Expected block and transaction");
+            return;
+        }
 
-        return blockchain.appendBlocks(missingBlocks);
+        Block block = blocks.isEmpty() ? null : blocks.get(0);
+        MerkleProof proof = block == null ? null :
+                MerkleHelper.prove(block.index, block.transactions, transactionHash);
+
+        if (proof == null)
+            ratpackContext.getResponse().status(404).send("No such transaction in block");
+        else
+            sendJson(ratpackContext, proof);
     }
 
     /**
-     * Saves the given transaction to our pending transactions cache if not
-     * already cached.
+     * Takes note of the blocks and transactions a peer announces and
+     * requests the ones we don't have from that peer.
      *
      * @param ratpackContext The context providing the request metrics.
      */
-    private void recordTransaction(final Context ratpackContext) {
+    private void receiveInventory(final Context ratpackContext) {
         ratpackContext
-                .parse(Jackson.jsonNode())
-                .then(jsonNode -> {
+                .getRequest()
+                .getBody()
+                .then(body -> {
+                    Inventory announced;
+                    try {
+                        announced = JsonHelper.fromJson(body.getInputStream(), Inventory.class);
+                    } catch (IllegalArgumentException e) {
+                        announced = null;
+                    }
+
+                    if (announced == null || announced.sender == null) {
+                        ratpackContext.getResponse().status(400).send("Invalid inventory");
+                        return;
+                    }
+
                     // Release the HTTP request.
                     ratpackContext.getResponse().status(200).send();
+                    handleInventory(announced);
+                });
+    }
 
-                    // Cache next transaction. Don't propagate things we already
-                    // have in our cache (to avoid resonance).
-                    if (!blockchain.record(
-                            jsonNode.get("sender").asText(),
-                            jsonNode.get("receiver").asText(),
-                            jsonNode.get("data").asText(),
-                            jsonNode.get("timestamp").asLong()))
-                        return;
+    /**
+     * Accepts a WebSocket channel opened to us by a peer. Gossip frames
+     * received on the channel are handled just like the corresponding REST
+     * requests.
+     *
+     * @param ratpackContext The context providing the request metrics.
+     */
+    private void openChannel(final Context ratpackContext) {
+        WebSockets.websocket(ratpackContext, channels.inbound());
+    }
+
+    /**
+     * Handles a frame received from a peer on a channel. Inventory frames
+     * are handled as inventory announcements, request frames are responded
+     * to with the requested blocks and transactions we have.
+     *
+     * @param peer  The URL of the peer.
+     * @param frame The received frame.
+     * @return The response frame to reply with, or null if there is none.
+     */
+    private ChannelFrame handleFrame(final String peer, final ChannelFrame frame) {
+        if (ChannelFrame.INVENTORY.equals(frame.type)) {
+            handleInventory(new Inventory(peer, frame.blockHashes, frame.transactionHashes));
+        } else if (ChannelFrame.REQUEST.equals(frame.type)) {
+            List<Block> blocks = new ArrayList<>();
+            if (frame.blockHashes != null)
+                for (String hash : frame.blockHashes) {
+                    Block block = blockchain.getBlock(hash);
+                    if (block != null)
+                        blocks.add(block);
+                }
+
+            List<Transaction> transactions = new ArrayList<>();
+            if (frame.transactionHashes != null)
+                for (String hash : frame.transactionHashes) {
+                    Transaction transaction = blockchain.getTransaction(hash);
+                    if (transaction != null)
+                        transactions.add(transaction);
+                }
+
+            return ChannelFrame.response(frame.id, blocks, transactions);
+        }
+
+        return null;
+    }
+
+    /**
+     * Takes note of the blocks and transactions a peer announces and
+     * requests the ones we don't have, and that nobody else is requesting
+     * already, from that peer in batches.
+     *
+     * @param announced The announced inventory.
+     */
+    private void handleInventory(final Inventory announced) {
+        String peer = announced.sender;
+        List<String> blockHashes = announced.blocks != null ?
+                announced.blocks : Collections.emptyList();
+        List<String> transactionHashes = announced.transactions != null ?
+                announced.transactions : Collections.emptyList();
+
+        inventory.markKnown(peer, blockHashes);
+        inventory.markKnown(peer, transactionHashes);
+
+        List<String> missingBlocks = claimMissing(blockHashes, blockchain::containsBlock);
+        List<String> missingTransactions = claimMissing(transactionHashes, blockchain::containsTransaction);
+        int count = Math.max(missingBlocks.size(), missingTransactions.size());
+        for (int i = 0; i < count; i += INVENTORY_FETCH_SIZE)
+            fetch(peer, batchOf(missingBlocks, i), batchOf(missingTransactions, i));
+    }
+
+    /*
+     * Requests the given, claimed, blocks and transactions from the given
+     * peer, over a channel if there is one, else through the REST API. A
+     * channel request that times out, or whose channel closes, is retried
+     * through the REST API. The response is handled on the verifier threads
+     * and the claims are released once it has been handled, or the peer has
+     * failed.
+     */
+    private void fetch(final String peer,
+                       final List<String> blockHashes,
+                       final List<String> transactionHashes) {
+
+        CompletableFuture<ChannelFrame> response = channels.request(peer, blockHashes, transactionHashes);
+        if (response == null) {
+            fetchOverRest(peer, blockHashes, transactionHashes);
+            return;
+        }
 
-                    // We have cached the transaction, propagate further.
-                    String json = jsonNode.toString();
-                    List<String> peers = NodeHelper.getSomePeers();
-                    for (String peer : peers)
-                        NetworkHelper.post(peer + "/transactions", json);
+        response.thenAcceptAsync(frame -> {
+            if (frame == null) {
+                fetchOverRest(peer, blockHashes, transactionHashes);
+                return;
+            }
+
+            try {
+                if (frame.blocks != null)
+                    handleBlocks(frame.blocks.toArray(new Block[0]));
+
+                if (frame.transactions != null)
+                    handleTransactions(frame.transactions);
+            } finally {
+                inventory.release(blockHashes);
+                inventory.release(transactionHashes);
+            }
+        }, verifyService);
+    }
+
+    /*
+     * Requests the given, claimed, blocks and transactions from the given
+     * peer through the REST API.
+     */
+    private void fetchOverRest(final String peer,
+                               final List<String> blockHashes,
+                               final List<String> transactionHashes) {
 
-                    // Start mining if we aren't already and if there are
-                    // any transactions to mine.
-                    blockchain.mine(miningListener);
+        if (!blockHashes.isEmpty())
+            fetch(peer + "/blocks", blockHashes,
+                    bytes -> handleBlocks(BinaryCodec.decodeBlocks(bytes)));
+
+        if (!transactionHashes.isEmpty())
+            fetch(peer + "/transactions", transactionHashes,
+                    bytes -> handleTransactions(Arrays.asList(BinaryCodec.decodeTransactions(bytes))));
+    }
+
+    /*
+     * Requests the items with the given hashes from the given URL and hands
+     * the response to the handler on the verifier threads.
+     */
+    private void fetch(final String url, final List<String> hashes, final Consumer<byte[]> handler) {
+        StringBuilder query = new StringBuilder(url);
+        for (int i = 0; i < hashes.size(); i++)
+            query.append(i == 0 ? "?hash=" : "&hash=").append(hashes.get(i));
+
+        NetworkHelper.getBinary(query.toString()).thenAcceptAsync(bytes -> {
+            try {
+                handler.accept(bytes);
+            } catch (IllegalArgumentException e) {
+                // Forgive and forget...
+            } finally {
+                inventory.release(hashes);
+            }
+        }, verifyService);
+    }
+
+    /*
+     * Picks the items we don't have, and that nobody else is requesting
+     * already, and claims them.
+     */
+    private List<String> claimMissing(final List<String> hashes, final Predicate<String> have) {
+        List<String> missing = new ArrayList<>();
+        for (String hash : hashes)
+            if (!have.test(hash) && inventory.claim(hash))
+                missing.add(hash);
+
+        return missing;
+    }
+
+    /*
+     * Picks the batch of hashes starting at the given position. May be empty.
+     */
+    private static List<String> batchOf(final List<String> hashes, final int from) {
+        return from >= hashes.size() ?
+                Collections.emptyList() :
+                hashes.subList(from, Math.min(hashes.size(), from + INVENTORY_FETCH_SIZE));
+    }
+
+    /*
+     * Handles blocks fetched from a peer, in chain order.
+     */
+    private void handleBlocks(final Block[] blocks) {
+        Arrays.sort(blocks, (a, b) -> Integer.compare(a.index, b.index));
+        for (Block block : blocks)
+            handleBlock(block);
+    }
+
+    /*
+     * Announces the given block and transaction hashes to the given peers,
+     * leaving out anything a peer is known to have already.
+     */
+    private void announce(final Collection<String> peers,
+                          final List<String> blockHashes,
+                          final List<String> transactionHashes) {
+
+        for (String peer : peers) {
+            List<String> blocks = inventory.takeUnknown(peer, blockHashes);
+            List<String> transactions = inventory.takeUnknown(peer, transactionHashes);
+            if (blocks.isEmpty() && transactions.isEmpty())
+                continue;
+
+            // Prefer the peer's channel, if there is one.
+            Inventory announcement = new Inventory(NodeHelper.getMyAddress(), blocks, transactions);
+            if (!channels.send(peer, ChannelFrame.inventory(announcement)))
+                NetworkHelper.post(peer + "/inventory", announcement);
+        }
+    }
+
+    /*
+     * Extracts the hashes of the given transactions.
+     */
+    private static List<String> hashesOf(final List<Transaction> transactions) {
+        List<String> hashes = new ArrayList<>(transactions.size());
+        for (Transaction transaction : transactions)
+            hashes.add(transaction.hash);
+
+        return hashes;
+    }
+
+    /**
+     * Synchronizes our version of the blockchain with some peers of ours.
+     * The missing blocks are requested asynchronously, from several peers at
+     * once.
+     *
+     * @return A future delivering boolean true if the synchronziation could
+     * be performed, else boolean false.
+     */
+    private CompletableFuture<Boolean> synchronizeBlockchain() {
+        return synchronizer.synchronize(NodeHelper.getSomePeers(SYNC_PEERS_COUNT));
+    }
+
+    /**
+     * Serves the runtime metrics of this node in the Prometheus text format.
+     *
+     * @param ratpackContext The context providing the request metrics.
+     */
+    private static void serveMetrics(final Context ratpackContext) {
+        ratpackContext.getResponse().send(CONTENT_TYPE_METRICS, Metrics.scrape());
+    }
+
+    /**
+     * Serves the height of our blockchain, allowing peers to figure out which
+     * blocks they are missing.
+     *
+     * @param ratpackContext The context providing the request metrics.
+     */
+    private void serveHeight(final Context ratpackContext) {
+        sendJson(ratpackContext, Collections.singletonMap("height", blockchain.getHeight()));
+    }
+
+    /**
+     * Saves the given transactions to our pending transactions cache if not
+     * already cached. The request body may hold a single JSON transaction, a
+     * JSON array of transactions, newline delimited JSON transactions (with
+     * an "application/x-ndjson" content type) or a binary list of
+     * transactions. The transactions are verified off the event loop and the
+     * request is responded to once that's done.
+     *
+     * @param ratpackContext The context providing the request metrics.
+     */
+    private void recordTransaction(final Context ratpackContext) {
+        ratpackContext
+                .getRequest()
+                .getBody()
+                .then(body -> {
+                    List<Transaction> transactions;
+                    try {
+                        if (isBinary(ratpackContext))
+                            transactions = Arrays.asList(BinaryCodec.decodeTransactions(body.getBytes()));
+                        else if (isNdjson(ratpackContext))
+                            transactions = TransactionHelper.parseTransactionStream(readerOf(body));
+                        else
+                            transactions = TransactionHelper.parseTransactions(readerOf(body));
+                    } catch (IllegalArgumentException e) {
+                        ratpackContext.getResponse().status(400).send(e.getMessage());
+                        return;
+                    }
+
+                    List<Transaction> received = transactions;
+                    respondWhenDone(ratpackContext, () -> handleTransactions(received));
                 });
     }
 
+    /**
+     * Caches transactions received from a client or a peer and, if they are
+     * new to us, queues them for announcement. Malformed transactions, and
+     * transactions that aren't properly signed, are silently dropped. Blocks
+     * the calling thread while verifying, so it must not be called on the
+     * event loop.
+     *
+     * @param transactions The received transactions.
+     */
+    private void handleTransactions(final List<Transaction> transactions) {
+        // Cache the transactions. Don't propagate things we already have in
+        // our cache (to avoid resonance).
+        List<Transaction> created = new ArrayList<>(transactions.size());
+        for (Transaction t : transactions) {
+            try {
+                created.add(TransactionHelper.create(t.sender, t.receiver, t.data, t.timestamp, t.signature));
+            } catch (IllegalArgumentException e) {
+                // Forgive and forget...
+            }
+        }
+
+        // The signatures of the whole batch are verified in parallel.
+        List<Transaction> accepted = blockchain.record(created);
+
+        if (accepted.isEmpty())
+            return;
+
+        // We have cached the transactions, announce them further. The batcher
+        // will merge them with any other transactions for the same peers.
+        transactionGossip.offer(NodeHelper.getSomePeers(), accepted);
+
+        // Start mining if we aren't already and if there are any transactions
+        // to mine.
+        blockchain.mine(miningListener);
+    }
+
     /**
      * Registers a peer and the peer's peers in our internal list of peers and
      * requests the peer to return the favor by registering this node in its
@@ -189,22 +675,27 @@ public class Server {
      */
     private void registerPeer(final Context ratpackContext) {
         ratpackContext
-                .parse(Jackson.jsonNode())
-                .then(jsonNode -> {
+                .getRequest()
+                .getBody()
+                .then(body -> {
                     // Get the address of the node that want's to register.
-                    String peer = jsonNode.get("address").asText();
+                    String peer = parseAddress(body);
+                    if (peer == null) {
+                        ratpackContext.getResponse().status(400).send("Expected address");
+                        return;
+                    }
 
                     // Respond with some of our peers.
                     List<String> someOfMyPeers = NodeHelper.getSomePeers();
-                    ratpackContext.render(Jackson.json(someOfMyPeers));
+                    sendJson(ratpackContext, someOfMyPeers);
 
                     // Register the peer and some of its peers. Ask the peer to
                     // return the favor by registering us in its peers list.
-                    if (NodeHelper.register(peer)) {
-                        String[] peersOfPeer = NodeHelper.registerAt(peer);
-                        for (String p : peersOfPeer)
-                            NodeHelper.register(p);
-                    }
+                    if (NodeHelper.register(peer))
+                        NodeHelper.registerAt(peer).thenAccept(peersOfPeer -> {
+                            for (String p : peersOfPeer)
+                                NodeHelper.register(p);
+                        });
                 });
     }
 
@@ -215,24 +706,53 @@ public class Server {
      */
     private void unregisterPeer(final Context ratpackContext) {
         ratpackContext
-                .parse(Jackson.jsonNode())
-                .then(jsonNode -> {
+                .getRequest()
+                .getBody()
+                .then(body -> {
+                    String peer = parseAddress(body);
+                    if (peer == null) {
+                        ratpackContext.getResponse().status(400).send("Expected address");
+                        return;
+                    }
+
                     ratpackContext.getResponse().status(200).send();
-                    String peer = jsonNode.get("address").asText();
                     NodeHelper.unregister(peer);
+                    inventory.forget(peer);
                 });
     }
 
 
     /**
-     * Serves our pending transactions to the requesting party. This method
-     * should only be used in debugging purpouses.
+     * Serves pending transactions to the requesting party. If one or more
+     * "hash" query parameters are given, only the pending transactions with
+     * those hashes are served. Serving all our pending transactions should
+     * only be used in debugging purpouses.
      *
      * @param ratpackContext The context providing the request metrics.
      */
-    private void debug_servePendingTransactions(final Context ratpackContext) {
-        List<Transaction> transactions = blockchain.getTransactions();
-        ratpackContext.render(Jackson.json(transactions));
+    private void serveTransactions(final Context ratpackContext) {
+        List<String> hashes = ratpackContext
+                .getRequest()
+                .getQueryParams()
+                .getAll("hash");
+
+        List<Transaction> transactions;
+        if (hashes != null && !hashes.isEmpty()) {
+            transactions = new ArrayList<>(hashes.size());
+            for (String hash : hashes) {
+                Transaction transaction = blockchain.getTransaction(hash);
+                if (transaction != null)
+                    transactions.add(transaction);
+            }
+        } else {
+            transactions = blockchain.getTransactions();
+        }
+
+        if (acceptsBinary(ratpackContext))
+            ratpackContext.getResponse().send(BinaryCodec.MEDIA_TYPE,
+                    BinaryCodec.encodeTransactions(transactions));
+        else
+            sendJson(ratpackContext, transactions);
     }
 
     /**
@@ -243,7 +763,164 @@ public class Server {
      */
     private void debug_servePeers(final Context ratpackContext) {
         List<String> peers = NodeHelper.getAllPeers();
-        ratpackContext.render(Jackson.json(peers));
+        sendJson(ratpackContext, peers);
+    }
+
+    /*
+     * Times the request described by the given context, from now until the
+     * response has been sent, and hands it on to the next handler. Unknown
+     * paths are all timed as one route, so that random requests can't bloat
+     * the metrics.
+     */
+    private static void timeRequest(final Context ratpackContext) {
+        long start = System.nanoTime();
+        String path = ratpackContext.getRequest().getPath();
+        String route = ROUTES.contains(path) ? path : "other";
+        String method = ratpackContext.getRequest().getMethod().getName();
+
+        ratpackContext.onClose(outcome -> Metrics.histogram("blockchain_http_request_seconds",
+                "Latency of HTTP requests, per route and method",
+                Metrics.LATENCY_BUCKETS,
+                "route", route,
+                "method", method).observeSince(start));
+
+        ratpackContext.next();
+    }
+
+    /*
+     * Runs the given work on the verifier threads, off the event loop, and
+     * responds to the request once it's done.
+     */
+    private void respondWhenDone(final Context ratpackContext, final Runnable work) {
+        Promise.<Void>async(downstream -> downstream.accept(CompletableFuture.runAsync(work, verifyService)))
+                .then(nothing -> ratpackContext.getResponse().status(200).send());
+    }
+
+    /*
+     * Encodes the given object as JSON with the shared serializer and sends
+     * it as the response.
+     */
+    private static void sendJson(final Context ratpackContext, final Object object) {
+        ratpackContext.getResponse().send(CONTENT_TYPE_JSON, JsonHelper.toJson(object));
+    }
+
+    /*
+     * Reads the request body as UTF-8 text, without copying it into a string
+     * first.
+     */
+    private static Reader readerOf(final TypedData body) {
+        return new InputStreamReader(body.getInputStream(), UTF_8);
+    }
+
+    /*
+     * Parses the "address" of a peer registration request body. Returns null
+     * if there is none.
+     */
+    private static String parseAddress(final TypedData body) {
+        try {
+            Registration registration = JsonHelper.fromJson(body.getInputStream(), Registration.class);
+            return registration == null ? null : registration.address;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /*
+     * Tests whether the request body is in the binary format.
+     */
+    private static boolean isBinary(final Context ratpackContext) {
+        return BinaryCodec.isBinary(ratpackContext
+                .getRequest()
+                .getContentType()
+                .getType());
+    }
+
+    /*
+     * Tests whether the request body is newline delimited JSON.
+     */
+    private static boolean isNdjson(final Context ratpackContext) {
+        String contentType = ratpackContext
+                .getRequest()
+                .getContentType()
+                .getType();
+
+        return contentType != null && contentType.contains(CONTENT_TYPE_NDJSON);
+    }
+
+    /*
+     * Tests whether the requester accepts responses in the binary format.
+     */
+    private static boolean acceptsBinary(final Context ratpackContext) {
+        return BinaryCodec.isBinary(ratpackContext
+                .getRequest()
+                .getHeaders()
+                .get("Accept"));
+    }
+
+    /*
+     * Tests whether the requester asks for newline delimited JSON.
+     */
+    private static boolean acceptsNdjson(final Context ratpackContext) {
+        String format = ratpackContext
+                .getRequest()
+                .getQueryParams()
+                .get("format");
+
+        if (format != null)
+            return "ndjson".equals(format);
+
+        String accept = ratpackContext
+                .getRequest()
+                .getHeaders()
+                .get("Accept");
+
+        return accept != null && accept.contains(CONTENT_TYPE_NDJSON);
+    }
+
+    /*
+     * Parses an optional, non-negative, integer query parameter.
+     */
+    private static int parseInt(final String value, final int defaultValue) throws NumberFormatException {
+        if (value == null || value.isEmpty())
+            return defaultValue;
+
+        int result = Integer.parseInt(value);
+        if (result < 0)
+            throw new NumberFormatException("Negative value: " + value);
+
+        return result;
+    }
+
+    /*
+     * Lazily produces an optional prefix, one chunk per block and an optional
+     * suffix. The chunks aren't created until they are requested by the
+     * response stream.
+     */
+    private static <T> Iterable<T> chunks(final List<Block> blocks,
+                                          final T prefix,
+                                          final IntFunction<T> item,
+                                          final T suffix) {
+
+        return () -> new Iterator<T>() {
+            private int position = prefix == null ? 0 : -1;
+            private final int end = suffix == null ? blocks.size() : blocks.size() + 1;
+
+            @Override
+            public boolean hasNext() {
+                return position < end;
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+
+                int i = position++;
+                return i < 0 ? prefix :
+                        i < blocks.size() ? item.apply(i) :
+                                suffix;
+            }
+        };
     }
 
     /**
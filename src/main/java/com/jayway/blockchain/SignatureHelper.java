@@ -0,0 +1,147 @@
+package com.jayway.blockchain;
+
+import java.lang.IllegalArgumentException;
+import java.lang.IllegalStateException;
+import java.lang.String;
+import java.lang.System;
+import java.lang.ThreadLocal;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.X509EncodedKeySpec;
+
+/**
+ *  This class offers convenience methods for the Ed25519 signatures that
+ *  transactions are signed with. A public key is expressed as the 64 digit
+ *  hex-string of its raw 32 bytes, and a signature as the 128 digit
+ *  hex-string of its raw 64 bytes. What's signed is the raw 32 bytes of the
+ *  transaction hash.
+ *  <p>
+ *  All methods are thread safe; each thread uses its own signature and key
+ *  factory instances. The Ed25519 algorithm is provided by the JDK as of
+ *  Java 15.
+ */
+public class SignatureHelper {
+
+    /**
+     * The number of hex digits in a public key.
+     */
+    public static final int PUBLIC_KEY_LENGTH = 64;
+
+    /**
+     * The number of hex digits in a signature.
+     */
+    public static final int SIGNATURE_LENGTH = 128;
+
+    private static final String ALGORITHM = "Ed25519";
+
+    // The X.509 (SubjectPublicKeyInfo) encoding of an Ed25519 public key is
+    // this fixed prefix followed by the raw key.
+    private static final byte[] X509_PREFIX = HashHelper.fromHex("302a300506032b6570032100");
+
+    // Signature and KeyFactory instances aren't thread safe, hence each
+    // thread gets its own instances.
+    private static final ThreadLocal<Signature> SIGNATURE =
+            ThreadLocal.withInitial(() -> {
+                try {
+                    return Signature.getInstance(ALGORITHM);
+                } catch (NoSuchAlgorithmException e) {
+                    throw new IllegalStateException("No Ed25519 algorithm, Java 15 or later required", e);
+                }
+            });
+
+    private static final ThreadLocal<KeyFactory> KEY_FACTORY =
+            ThreadLocal.withInitial(() -> {
+                try {
+                    return KeyFactory.getInstance(ALGORITHM);
+                } catch (NoSuchAlgorithmException e) {
+                    throw new IllegalStateException("No Ed25519 algorithm, Java 15 or later required", e);
+                }
+            });
+
+    /**
+     *  Generates a new, random, Ed25519 key pair.
+     *
+     *  @return The key pair.
+     *  @throws IllegalStateException if Ed25519 isn't supported.
+     */
+    public static KeyPair generateKeyPair() throws IllegalStateException {
+        try {
+            return KeyPairGenerator.getInstance(ALGORITHM).generateKeyPair();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("No Ed25519 algorithm, Java 15 or later required", e);
+        }
+    }
+
+    /**
+     *  Expresses the public key of the given key pair as a hex-string, as
+     *  used for the sender of a transaction.
+     *
+     *  @param keyPair  The key pair.
+     *  @return The raw public key as a hex-string.
+     */
+    public static String publicKeyOf(final KeyPair keyPair) {
+        byte[] encoded = keyPair.getPublic().getEncoded();
+        byte[] raw = new byte[encoded.length - X509_PREFIX.length];
+        System.arraycopy(encoded, X509_PREFIX.length, raw, 0, raw.length);
+        return HashHelper.toHex(raw);
+    }
+
+    /**
+     *  Signs the given transaction hash.
+     *
+     *  @param privateKey   The private key to sign with.
+     *  @param hash         The transaction hash as a hex-string.
+     *  @return The signature as a hex-string.
+     *  @throws IllegalArgumentException if the key or hash is invalid.
+     */
+    public static String sign(final PrivateKey privateKey, final String hash) throws IllegalArgumentException {
+        try {
+            Signature signature = SIGNATURE.get();
+            signature.initSign(privateKey);
+            signature.update(HashHelper.fromHex(hash));
+            return HashHelper.toHex(signature.sign());
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("Couldn't sign " + hash, e);
+        }
+    }
+
+    /**
+     *  Verifies that the given signature of the given transaction hash was
+     *  made with the private key of the given public key.
+     *
+     *  @param publicKey    The public key as a hex-string.
+     *  @param hash         The transaction hash as a hex-string.
+     *  @param signature    The signature as a hex-string.
+     *  @return Boolean true if the signature is valid, else false. Keys and
+     *  signatures that can't be decoded are never valid.
+     */
+    public static boolean verify(final String publicKey, final String hash, final String signature) {
+        try {
+            Signature verifier = SIGNATURE.get();
+            verifier.initVerify(decodePublicKey(publicKey));
+            verifier.update(HashHelper.fromHex(hash));
+            return verifier.verify(HashHelper.fromHex(signature));
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /*
+     * Decodes a raw public key hex-string.
+     */
+    private static PublicKey decodePublicKey(final String publicKey) throws GeneralSecurityException {
+        byte[] raw = HashHelper.fromHex(publicKey);
+        byte[] encoded = new byte[X509_PREFIX.length + raw.length];
+        System.arraycopy(X509_PREFIX, 0, encoded, 0, X509_PREFIX.length);
+        System.arraycopy(raw, 0, encoded, X509_PREFIX.length, raw.length);
+        return KEY_FACTORY.get().generatePublic(new X509EncodedKeySpec(encoded));
+    }
+
+}
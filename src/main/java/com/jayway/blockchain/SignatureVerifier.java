@@ -0,0 +1,192 @@
+package com.jayway.blockchain;
+
+import java.lang.IllegalArgumentException;
+import java.lang.Integer;
+import java.lang.String;
+
+import java.util.List;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class verifies transactions: each transaction must be well formed,
+ * its hash must match its content and its signature must be a valid
+ * signature of the hash by the sender. Batches of transactions are verified
+ * in parallel on a fork/join pool, as checking a signature is by far the
+ * most expensive part.
+ * <p>
+ * Verified transactions are remembered by their hash and signature in a
+ * bounded cache, so that a transaction that was verified on its way into the
+ * mempool isn't verified again when it shows up in a block. The oldest
+ * entries are evicted first. The content of a cached transaction is still
+ * hashed, as that's cheap and binds the content to the cached signature.
+ * <p>
+ * The cache size can be tuned through the following system property:
+ * <pre>
+ *     blockchain.signatures.cacheSize (default 100000)
+ * </pre>
+ */
+public class SignatureVerifier {
+    // Don't bother forking for batches smaller than this.
+    private static final int SEQUENTIAL_THRESHOLD = 8;
+
+    private static final int DEFAULT_CACHE_SIZE =
+            Integer.getInteger("blockchain.signatures.cacheSize", 100_000);
+
+    private static final Metrics.Counter VERIFIED = Metrics.counter(
+            "blockchain_signatures_verified_total",
+            "Number of transaction signatures verified");
+    private static final Metrics.Counter CACHED = Metrics.counter(
+            "blockchain_signatures_cached_total",
+            "Number of transaction signatures found in the verified cache");
+    private static final Metrics.Counter REJECTED = Metrics.counter(
+            "blockchain_signatures_rejected_total",
+            "Number of transactions rejected for a bad hash or signature");
+
+    private final class VerifyTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Transaction> transactions;
+        private final boolean[] results;
+        private final int from;
+        private final int to;
+
+        VerifyTask(final List<Transaction> transactions, final boolean[] results, final int from, final int to) {
+            this.transactions = transactions;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SEQUENTIAL_THRESHOLD) {
+                for (int i = from; i < to; i++)
+                    results[i] = verify(transactions.get(i));
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new VerifyTask(transactions, results, from, middle),
+                        new VerifyTask(transactions, results, middle, to));
+            }
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private final int capacity;
+    private final ConcurrentHashMap<String, String> verified;
+    private final ConcurrentLinkedQueue<String> order;
+    private final AtomicInteger size;
+
+    /**
+     * Prepares a new signature verifier working on the common fork/join
+     * pool, with the default cache size.
+     */
+    public SignatureVerifier() {
+        this(ForkJoinPool.commonPool(), DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * Prepares a new signature verifier.
+     *
+     * @param pool     The pool to verify batches of transactions on.
+     * @param capacity The max number of verified transactions to remember.
+     * @throws IllegalArgumentException if the capacity is negative.
+     */
+    public SignatureVerifier(final ForkJoinPool pool, final int capacity) throws IllegalArgumentException {
+        if (capacity < 0)
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+
+        this.pool = pool;
+        this.capacity = capacity;
+        this.verified = new ConcurrentHashMap<>();
+        this.order = new ConcurrentLinkedQueue<>();
+        this.size = new AtomicInteger(0);
+    }
+
+    /**
+     * Verifies a single transaction.
+     *
+     * @param transaction The transaction to verify.
+     * @return Boolean true if the transaction is valid, else false.
+     */
+    public boolean verify(final Transaction transaction) {
+        if (!TransactionHelper.isWellFormed(transaction) ||
+                !TransactionHelper.hashOf(transaction).equals(transaction.hash)) {
+            REJECTED.increment();
+            return false;
+        }
+
+        if (transaction.signature.equals(verified.get(transaction.hash))) {
+            CACHED.increment();
+            return true;
+        }
+
+        VERIFIED.increment();
+        if (!SignatureHelper.verify(transaction.sender, transaction.hash, transaction.signature)) {
+            REJECTED.increment();
+            return false;
+        }
+
+        remember(transaction);
+        return true;
+    }
+
+    /**
+     * Verifies a batch of transactions in parallel.
+     *
+     * @param transactions The transactions to verify.
+     * @return The outcome for each transaction, in the same order: boolean
+     * true if the transaction is valid, else false.
+     */
+    public boolean[] verify(final List<Transaction> transactions) {
+        boolean[] results = new boolean[transactions.size()];
+        VerifyTask task = new VerifyTask(transactions, results, 0, results.length);
+
+        if (results.length <= SEQUENTIAL_THRESHOLD)
+            task.compute();
+        else if (ForkJoinTask.inForkJoinPool())
+            task.invoke();
+        else
+            pool.invoke(task);
+
+        return results;
+    }
+
+    /**
+     * Verifies a batch of transactions in parallel.
+     *
+     * @param transactions The transactions to verify.
+     * @return Boolean true if all transactions are valid, else false.
+     */
+    public boolean verifyAll(final List<Transaction> transactions) {
+        for (boolean valid : verify(transactions))
+            if (!valid)
+                return false;
+
+        return true;
+    }
+
+    /*
+     * Remembers a verified transaction, evicting the oldest one if the cache
+     * is full.
+     */
+    private void remember(final Transaction transaction) {
+        if (capacity == 0 || verified.put(transaction.hash, transaction.signature) != null)
+            return;
+
+        order.add(transaction.hash);
+        if (size.incrementAndGet() > capacity) {
+            String eldest = order.poll();
+            if (eldest != null) {
+                verified.remove(eldest);
+                size.decrementAndGet();
+            }
+        }
+    }
+
+}
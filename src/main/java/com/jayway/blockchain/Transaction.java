@@ -3,7 +3,10 @@ package com.jayway.blockchain;
 import java.lang.String;
 
 /**
- *  This class represents a single transaction in the blockchain.
+ *  This class represents a single transaction in the blockchain. The sender
+ *  is the hex-string of the sender's Ed25519 public key and the signature is
+ *  the sender's signature of the transaction hash, see
+ *  {@link SignatureHelper}.
  */
 public class Transaction {
     public final String hash;
@@ -11,19 +14,22 @@ public class Transaction {
     public final String receiver;
     public final String data;
     public final long timestamp;
+    public final String signature;
 
 
     public Transaction(final String hash,
                        final String sender,
                        final String receiver,
                        final String data,
-                       final long timestamp) {
+                       final long timestamp,
+                       final String signature) {
 
         this.hash = hash;
         this.sender = sender;
         this.receiver = receiver;
         this.data = data;
         this.timestamp = timestamp;
+        this.signature = signature;
     }
 
 }
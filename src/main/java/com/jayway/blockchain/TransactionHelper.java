@@ -1,37 +1,235 @@
 package com.jayway.blockchain;
 
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+import java.lang.Character;
 import java.lang.IllegalArgumentException;
 import java.lang.String;
 import java.lang.StringBuilder;
 import java.lang.System;
 
+import java.security.KeyPair;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 public class TransactionHelper {
 
+    /**
+     * Creates a transaction signed by the sender, calculating its hash. The
+     * signature isn't verified; see {@link SignatureVerifier}.
+     *
+     * @param sender    The public key of the sender as a hex-string.
+     * @param receiver  The receiver.
+     * @param data      The data to transact.
+     * @param timestamp The time of the transaction. Must be the same as when
+     *                  the transaction was signed.
+     * @param signature The sender's signature of the transaction hash as a
+     *                  hex-string.
+     * @return The transaction.
+     * @throws IllegalArgumentException if any field is missing or malformed.
+     */
     public static Transaction create(final String sender,
                                      final String receiver,
                                      final String data,
-                                     final long timestamp) {
+                                     final long timestamp,
+                                     final String signature) throws IllegalArgumentException {
 
         validateSender(sender);
         validateReceiver(receiver);
         validateData(data);
-        
+        validateSignature(signature);
+
+        String hash = hashOf(sender, receiver, data, timestamp);
+        return new Transaction(hash, sender, receiver, data, timestamp, signature);
+    }
+
+    /**
+     * Creates and signs a new transaction from the owner of the given key
+     * pair.
+     *
+     * @param keyPair   The Ed25519 key pair of the sender.
+     * @param receiver  The receiver.
+     * @param data      The data to transact.
+     * @param timestamp The time of the transaction. If negative, the current
+     *                  time is used.
+     * @return The signed transaction.
+     * @throws IllegalArgumentException if any field is missing or malformed.
+     */
+    public static Transaction sign(final KeyPair keyPair,
+                                   final String receiver,
+                                   final String data,
+                                   final long timestamp) throws IllegalArgumentException {
+
+        String sender = SignatureHelper.publicKeyOf(keyPair);
+        validateReceiver(receiver);
+        validateData(data);
+
         long t = timestamp < 0 ?
                 System.currentTimeMillis() :
                 timestamp;
-                
-        String hash = HashHelper.hash(new StringBuilder()
+
+        String hash = hashOf(sender, receiver, data, t);
+        String signature = SignatureHelper.sign(keyPair.getPrivate(), hash);
+        return new Transaction(hash, sender, receiver, data, t, signature);
+    }
+
+    /**
+     * Calculates the hash of the given transaction from its content. The
+     * signature isn't part of the hash.
+     *
+     * @param transaction The transaction to hash.
+     * @return The hash as a hex-string.
+     */
+    public static String hashOf(final Transaction transaction) {
+        return hashOf(transaction.sender,
+                transaction.receiver,
+                transaction.data,
+                transaction.timestamp);
+    }
+
+    /**
+     * Parses the provided JSON string into transaction objects. The JSON may
+     * either be a single transaction object or an array of them.
+     *
+     * @param json The JSON string to parse.
+     * @return The corresponding transactions. May be empty but never null.
+     * @throws IllegalArgumentException if the JSON isn't valid.
+     */
+    public static List<Transaction> parseTransactions(final String json) throws IllegalArgumentException {
+        return parseTransactions(new StringReader(json));
+    }
+
+    /**
+     * Parses the JSON from the provided reader into transaction objects, in
+     * one pass. The JSON may either be a single transaction object or an
+     * array of them.
+     *
+     * @param json The reader to parse. Not closed.
+     * @return The corresponding transactions. May be empty but never null.
+     * @throws IllegalArgumentException if the JSON isn't valid.
+     */
+    public static List<Transaction> parseTransactions(final Reader json) throws IllegalArgumentException {
+        try {
+            Gson gson = JsonHelper.gson();
+            JsonReader reader = new JsonReader(json);
+            JsonToken token;
+            try {
+                token = reader.peek();
+            } catch (EOFException e) {
+                return Collections.emptyList();
+            }
+
+            List<Transaction> result = token == JsonToken.BEGIN_ARRAY ?
+                    Arrays.asList(gson.<Transaction[]>fromJson(reader, Transaction[].class)) :
+                    Collections.singletonList(gson.<Transaction>fromJson(reader, Transaction.class));
+
+            if (reader.peek() != JsonToken.END_DOCUMENT)
+                throw new IllegalArgumentException("Unexpected content after transaction JSON");
+
+            return result;
+        } catch (JsonParseException | IOException e) {
+            throw new IllegalArgumentException("Invalid transaction JSON", e);
+        }
+    }
+
+    /**
+     * Parses the provided newline delimited JSON string into transaction
+     * objects, one transaction per non-empty line.
+     *
+     * @param ndjson The newline delimited JSON string to parse.
+     * @return The corresponding transactions. May be empty but never null.
+     * @throws IllegalArgumentException if any line isn't valid JSON.
+     */
+    public static List<Transaction> parseTransactionStream(final String ndjson) throws IllegalArgumentException {
+        return parseTransactionStream(new StringReader(ndjson));
+    }
+
+    /**
+     * Parses the newline delimited JSON from the provided reader into
+     * transaction objects, one transaction per non-empty line, in one pass.
+     *
+     * @param ndjson The reader to parse. Not closed.
+     * @return The corresponding transactions. May be empty but never null.
+     * @throws IllegalArgumentException if any line isn't valid JSON.
+     */
+    public static List<Transaction> parseTransactionStream(final Reader ndjson) throws IllegalArgumentException {
+        try {
+            Gson gson = JsonHelper.gson();
+            JsonReader reader = new JsonReader(ndjson);
+            reader.setLenient(true);
+
+            List<Transaction> result = new ArrayList<>();
+            while (reader.peek() != JsonToken.END_DOCUMENT)
+                result.add(gson.fromJson(reader, Transaction.class));
+
+            return result;
+        } catch (JsonParseException | IOException e) {
+            throw new IllegalArgumentException("Invalid transaction JSON", e);
+        }
+    }
+
+    /**
+     * Tests whether the given transaction, typically received from a peer,
+     * is well formed. The hash must be a SHA-256 hex-string, the sender a
+     * public key hex-string and the signature a signature hex-string, and
+     * the receiver and data fields must be present. Neither the hash nor the
+     * signature is verified.
+     *
+     * @param transaction The transaction to test.
+     * @return Boolean true if the transaction is well formed, else false.
+     */
+    public static boolean isWellFormed(final Transaction transaction) {
+        return transaction != null &&
+                isHex(transaction.hash, 64) &&
+                isHex(transaction.sender, SignatureHelper.PUBLIC_KEY_LENGTH) &&
+                isHex(transaction.signature, SignatureHelper.SIGNATURE_LENGTH) &&
+                transaction.receiver != null && !transaction.receiver.isEmpty() &&
+                transaction.data != null && !transaction.data.isEmpty();
+    }
+
+    /*
+     * Calculates the hash of a transaction with the given content.
+     */
+    private static String hashOf(final String sender,
+                                 final String receiver,
+                                 final String data,
+                                 final long timestamp) {
+
+        return HashHelper.hash(new StringBuilder()
                 .append(sender)
                 .append(receiver)
                 .append(data)
-                .append(t)
+                .append(timestamp)
                 .toString());
+    }
+
+    /*
+     * Tests whether the given string is a hex-string of the given length.
+     */
+    private static boolean isHex(final String string, final int length) {
+        if (string == null || string.length() != length)
+            return false;
 
-        return new Transaction(hash, sender, receiver, data, t);
+        for (int i = 0; i < length; i++)
+            if (Character.digit(string.charAt(i), 16) < 0)
+                return false;
+
+        return true;
     }
 
     private static void validateSender(final String sender) {
-        if (sender == null || sender.isEmpty())
+        if (!isHex(sender, SignatureHelper.PUBLIC_KEY_LENGTH))
             throw new IllegalArgumentException("Invalid sender");
     }
     
@@ -46,6 +244,12 @@ public class TransactionHelper {
             throw new IllegalArgumentException("Invalid data");
 
     }
+
+    private static void validateSignature(final String signature) {
+        if (!isHex(signature, SignatureHelper.SIGNATURE_LENGTH))
+            throw new IllegalArgumentException("Invalid signature");
+
+    }
     
 }
 
@@ -0,0 +1,186 @@
+package com.jayway.blockchain;
+
+import java.io.ByteArrayOutputStream;
+
+import java.lang.IllegalArgumentException;
+import java.lang.String;
+
+import java.security.KeyPair;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies that blocks and transactions survive a round trip through the
+ * {@link BinaryCodec} format, whether encoded as a whole or streamed item by
+ * item, and that malformed payloads are rejected.
+ */
+public class BinaryCodecTest {
+    private static final long NOW = 1527924094000L;
+    private static final KeyPair KEY_PAIR = SignatureHelper.generateKeyPair();
+
+    @Test
+    public void roundTripsBlock() {
+        Block genesis = block(null, transactions(3));
+        Block second = block(genesis, transactions(1));
+
+        assertBlock(genesis, BinaryCodec.decodeBlock(BinaryCodec.encodeBlock(genesis)));
+        assertBlock(second, BinaryCodec.decodeBlock(BinaryCodec.encodeBlock(second)));
+    }
+
+    @Test
+    public void roundTripsBlockWithoutTransactions() {
+        Block block = block(null, Collections.emptyList());
+
+        assertBlock(block, BinaryCodec.decodeBlock(BinaryCodec.encodeBlock(block)));
+    }
+
+    @Test
+    public void roundTripsBlocks() {
+        List<Block> blocks = chain(4);
+        Block[] decoded = BinaryCodec.decodeBlocks(BinaryCodec.encodeBlocks(blocks));
+
+        assertEquals(blocks.size(), decoded.length);
+        for (int i = 0; i < decoded.length; i++)
+            assertBlock(blocks.get(i), decoded[i]);
+    }
+
+    @Test
+    public void streamedBlocksMatchEncodedBlocks() throws Exception {
+        List<Block> blocks = chain(4);
+        ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+        streamed.write(BinaryCodec.encodeListPrefix(blocks.size()));
+        for (Block block : blocks)
+            streamed.write(BinaryCodec.encodeListItem(block));
+
+        assertTrue(Arrays.equals(BinaryCodec.encodeBlocks(blocks), streamed.toByteArray()));
+    }
+
+    @Test
+    public void roundTripsTransactions() {
+        List<Transaction> transactions = transactions(3);
+
+        // Strings may be null, unlike hashes and signatures.
+        Transaction signed = transactions.get(0);
+        transactions.add(new Transaction(signed.hash, signed.sender, null, null, NOW, signed.signature));
+        Transaction[] decoded = BinaryCodec.decodeTransactions(BinaryCodec.encodeTransactions(transactions));
+
+        assertEquals(transactions.size(), decoded.length);
+        for (int i = 0; i < decoded.length; i++)
+            assertTransaction(transactions.get(i), decoded[i]);
+    }
+
+    @Test
+    public void decodesEmptyPayloadAsEmptyList() {
+        assertEquals(0, BinaryCodec.decodeBlocks(new byte[0]).length);
+        assertEquals(0, BinaryCodec.decodeTransactions(new byte[0]).length);
+    }
+
+    @Test
+    public void measuresEncodedTransaction() {
+        Transaction transaction = transactions(1).get(0);
+        byte[] bytes = BinaryCodec.encodeTransactions(Collections.singletonList(transaction));
+
+        // The version byte and the item count aren't part of the transaction.
+        assertEquals(bytes.length - 5, BinaryCodec.sizeOf(transaction));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTruncatedBlock() {
+        byte[] bytes = BinaryCodec.encodeBlock(block(null, transactions(2)));
+
+        BinaryCodec.decodeBlock(Arrays.copyOf(bytes, bytes.length - 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTrailingBytes() {
+        byte[] bytes = BinaryCodec.encodeBlock(block(null, transactions(2)));
+
+        BinaryCodec.decodeBlock(Arrays.copyOf(bytes, bytes.length + 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownVersion() {
+        byte[] bytes = BinaryCodec.encodeBlocks(chain(1));
+        bytes[0]++;
+
+        BinaryCodec.decodeBlocks(bytes);
+    }
+
+    /*
+     * Asserts that the decoded block is equal to the original, field by
+     * field.
+     */
+    private static void assertBlock(final Block expected, final Block actual) {
+        assertEquals(expected.index, actual.index);
+        assertEquals(expected.nonce, actual.nonce);
+        assertEquals(expected.timestamp, actual.timestamp);
+        assertEquals(expected.previousHashString, actual.previousHashString);
+        assertEquals(expected.merkleRoot, actual.merkleRoot);
+        assertEquals(expected.target, actual.target);
+        assertEquals(BlockHelper.hashBlock(expected), BlockHelper.hashBlock(actual));
+        assertEquals(expected.transactions.size(), actual.transactions.size());
+        for (int i = 0; i < expected.transactions.size(); i++)
+            assertTransaction(expected.transactions.get(i), actual.transactions.get(i));
+    }
+
+    /*
+     * Asserts that the decoded transaction is equal to the original, field
+     * by field.
+     */
+    private static void assertTransaction(final Transaction expected, final Transaction actual) {
+        assertEquals(expected.hash, actual.hash);
+        assertEquals(expected.sender, actual.sender);
+        assertEquals(expected.receiver, actual.receiver);
+        assertEquals(expected.data, actual.data);
+        assertEquals(expected.timestamp, actual.timestamp);
+        assertEquals(expected.signature, actual.signature);
+    }
+
+    /*
+     * Creates a chain of the given number of blocks with a transaction each.
+     */
+    private static List<Block> chain(final int count) {
+        List<Block> blocks = new ArrayList<>(count);
+        Block previous = null;
+        for (int i = 0; i < count; i++) {
+            previous = block(previous, transactions(1));
+            blocks.add(previous);
+        }
+
+        return blocks;
+    }
+
+    /*
+     * Creates a block with the given transactions on top of the given
+     * predecessor. The block isn't mined, as the codec doesn't care.
+     */
+    private static Block block(final Block previous, final List<Transaction> transactions) {
+        return new Block(previous == null ? 0 : previous.index + 1,
+                123456789L,
+                previous == null ? NOW : previous.timestamp + 1000,
+                previous == null ? null : BlockHelper.hashBlock(previous),
+                MerkleHelper.root(transactions),
+                DifficultyHelper.INITIAL_TARGET,
+                transactions);
+    }
+
+    /*
+     * Creates the given number of distinct, signed, transactions.
+     */
+    private static List<Transaction> transactions(final int count) {
+        List<Transaction> transactions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            transactions.add(TransactionHelper.sign(KEY_PAIR, "0xFEDCBA987654321", "transaction " + i, NOW + i));
+
+        return transactions;
+    }
+
+}
@@ -0,0 +1,227 @@
+package com.jayway.blockchain;
+
+import java.io.IOException;
+
+import java.lang.String;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import java.security.KeyPair;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Verifies that a {@link BlockStore} gives back what was appended to it, also
+ * after being reopened, and that it recovers from a crash that left a torn
+ * record at the end of the log or records that never made it to the index.
+ */
+public class BlockStoreTest {
+    private static final long NOW = 1527924094000L;
+    private static final KeyPair KEY_PAIR = SignatureHelper.generateKeyPair();
+    private static final String INDEX_FILE = "index.dat";
+    private static final String SEGMENT_FILE = "segment-00000000.log";
+    private static final int INDEX_HEADER_SIZE = 8;
+    private static final int INDEX_ENTRY_SIZE = 44;
+
+    @Test
+    public void readsAppendedBlocks() throws IOException {
+        Path directory = Files.createTempDirectory("blocks");
+        try {
+            List<Block> blocks = chain(3);
+            try (BlockStore store = BlockStore.open(directory)) {
+                store.append(blocks);
+                assertBlocks(blocks, store);
+            }
+
+            try (BlockStore store = BlockStore.open(directory)) {
+                assertBlocks(blocks, store);
+            }
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void cutsOffTornRecord() throws IOException {
+        Path directory = Files.createTempDirectory("blocks");
+        try {
+            List<Block> blocks = chain(3);
+            try (BlockStore store = BlockStore.open(directory)) {
+                store.append(blocks);
+            }
+
+            // Tear the last record, as a crash in the middle of writing it
+            // would.
+            truncate(directory.resolve(SEGMENT_FILE), 10);
+
+            try (BlockStore store = BlockStore.open(directory)) {
+                assertBlocks(blocks.subList(0, 2), store);
+
+                // The log continues where the torn record was cut off.
+                store.append(blocks.subList(2, 3));
+                assertBlocks(blocks, store);
+            }
+
+            try (BlockStore store = BlockStore.open(directory)) {
+                assertBlocks(blocks, store);
+            }
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void cutsOffTornRecordHeader() throws IOException {
+        Path directory = Files.createTempDirectory("blocks");
+        try {
+            List<Block> blocks = chain(2);
+            try (BlockStore store = BlockStore.open(directory)) {
+                store.append(blocks.subList(0, 1));
+            }
+
+            // Leave only part of a record header after the first record.
+            long size = Files.size(directory.resolve(SEGMENT_FILE));
+            try (FileChannel channel = FileChannel.open(directory.resolve(SEGMENT_FILE), StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.wrap(new byte[]{0, 0, 1}), size);
+            }
+
+            try (BlockStore store = BlockStore.open(directory)) {
+                assertBlocks(blocks.subList(0, 1), store);
+            }
+
+            assertEquals(size, Files.size(directory.resolve(SEGMENT_FILE)));
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void recoversUnindexedRecords() throws IOException {
+        Path directory = Files.createTempDirectory("blocks");
+        try {
+            List<Block> blocks = chain(3);
+            try (BlockStore store = BlockStore.open(directory)) {
+                store.append(blocks);
+            }
+
+            // Lose the index entries of the last two blocks, as a crash
+            // between writing the log and the index would.
+            Path index = directory.resolve(INDEX_FILE);
+            truncate(index, Files.size(index) - INDEX_HEADER_SIZE - INDEX_ENTRY_SIZE);
+
+            try (BlockStore store = BlockStore.open(directory)) {
+                assertBlocks(blocks, store);
+            }
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void dropsIndexEntriesBeyondLog() throws IOException {
+        Path directory = Files.createTempDirectory("blocks");
+        try {
+            List<Block> blocks = chain(3);
+            try (BlockStore store = BlockStore.open(directory)) {
+                store.append(blocks.subList(0, 2));
+            }
+
+            long size = Files.size(directory.resolve(SEGMENT_FILE));
+            try (BlockStore store = BlockStore.open(directory)) {
+                store.append(blocks.subList(2, 3));
+            }
+
+            // Lose the entire last record, but keep its index entry.
+            truncate(directory.resolve(SEGMENT_FILE), Files.size(directory.resolve(SEGMENT_FILE)) - size);
+
+            try (BlockStore store = BlockStore.open(directory)) {
+                assertBlocks(blocks.subList(0, 2), store);
+            }
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsSecondOpen() throws IOException {
+        Path directory = Files.createTempDirectory("blocks");
+        try (BlockStore store = BlockStore.open(directory)) {
+            BlockStore.open(directory).close();
+        } finally {
+            delete(directory);
+        }
+    }
+
+    /*
+     * Asserts that the store holds exactly the given blocks, in order.
+     */
+    private static void assertBlocks(final List<Block> expected, final BlockStore store) {
+        assertEquals(expected.size(), store.size());
+        for (int i = 0; i < expected.size(); i++) {
+            String hash = BlockHelper.hashBlock(expected.get(i));
+            assertEquals(hash, store.getHash(i));
+            assertEquals(hash, BlockHelper.hashBlock(store.read(i)));
+            assertEquals(expected.get(i).transactions.size(), store.read(i).transactions.size());
+        }
+    }
+
+    /*
+     * Cuts the given number of bytes off the end of the given file.
+     */
+    private static void truncate(final Path file, final long bytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - bytes);
+        }
+    }
+
+    /*
+     * Deletes the given directory and everything in it.
+     */
+    private static void delete(final Path directory) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (Stream<Path> walk = Files.walk(directory)) {
+            walk.forEach(paths::add);
+        }
+
+        paths.sort(Comparator.reverseOrder());
+        for (Path path : paths)
+            Files.delete(path);
+    }
+
+    /*
+     * Creates a chain of the given number of blocks with a few transactions
+     * each. The blocks aren't mined, as the store doesn't care.
+     */
+    private static List<Block> chain(final int count) {
+        List<Block> blocks = new ArrayList<>(count);
+        Block previous = null;
+        for (int i = 0; i < count; i++) {
+            List<Transaction> transactions = new ArrayList<>();
+            for (int j = 0; j <= i; j++)
+                transactions.add(TransactionHelper.sign(KEY_PAIR, "0xFEDCBA987654321", "transaction " + i + "." + j, NOW + j));
+
+            previous = new Block(i,
+                    0,
+                    NOW + i * 1000,
+                    previous == null ? null : BlockHelper.hashBlock(previous),
+                    MerkleHelper.root(transactions),
+                    DifficultyHelper.INITIAL_TARGET,
+                    transactions);
+            blocks.add(previous);
+        }
+
+        return blocks;
+    }
+
+}
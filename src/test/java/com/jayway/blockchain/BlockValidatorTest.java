@@ -0,0 +1,162 @@
+package com.jayway.blockchain;
+
+import java.lang.String;
+
+import java.security.KeyPair;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Verifies the content rules of {@link BlockValidator#verifyContents(Block[])}
+ * and the timestamp rules of {@link BlockValidator#verifyLinks(Block,
+ * Block[], java.util.function.IntFunction, long)}. The contents of the blocks
+ * aren't verified by the link phase, so the blocks linked here aren't mined.
+ */
+public class BlockValidatorTest {
+    private static final long NOW = 1527924094000L;
+    private static final String MERKLE_ROOT = HashHelper.hash("no transactions");
+    private static final KeyPair KEY_PAIR = SignatureHelper.generateKeyPair();
+
+    private final BlockValidator validator = new BlockValidator();
+
+    @Test
+    public void acceptsMinedBlock() {
+        Block block = mine(transactions(3));
+
+        assertEquals(-1, validator.verifyContents(new Block[]{block}));
+    }
+
+    @Test
+    public void rejectsRepeatedTransactions() {
+        List<Transaction> transactions = transactions(3);
+        Block block = mine(transactions);
+
+        // Repeating the last transaction of an odd level keeps both the
+        // Merkle root and the block hash.
+        List<Transaction> repeated = new ArrayList<>(transactions);
+        repeated.add(transactions.get(2));
+        Block mutant = new Block(block.index,
+                block.nonce,
+                block.timestamp,
+                block.previousHashString,
+                block.merkleRoot,
+                block.target,
+                repeated);
+
+        assertEquals(block.merkleRoot, MerkleHelper.root(repeated));
+        assertEquals(BlockHelper.hashBlock(block), BlockHelper.hashBlock(mutant));
+        assertEquals(0, validator.verifyContents(new Block[]{mutant}));
+    }
+
+    @Test
+    public void acceptsIncreasingTimestamps() {
+        Block genesis = block(null, NOW - 3000);
+        Block second = block(genesis, NOW - 2000);
+        Block third = block(second, NOW - 1000);
+
+        assertEquals(-1, verify(null, genesis, second, third));
+    }
+
+    @Test
+    public void rejectsTimestampEqualToPredecessor() {
+        Block genesis = block(null, NOW - 2000);
+        Block second = block(genesis, NOW - 1000);
+        Block third = block(second, NOW - 1000);
+
+        assertEquals(2, verify(null, genesis, second, third));
+    }
+
+    @Test
+    public void rejectsTimestampBeforePredecessor() {
+        Block genesis = block(null, NOW - 2000);
+        Block second = block(genesis, NOW - 3000);
+
+        assertEquals(1, verify(null, genesis, second));
+    }
+
+    @Test
+    public void rejectsTimestampBeforeReference() {
+        Block genesis = block(null, NOW - 2000);
+        Block second = block(genesis, NOW - 3000);
+
+        assertEquals(0, verify(genesis, second));
+    }
+
+    @Test
+    public void acceptsTimestampWithinClockDrift() {
+        Block genesis = block(null, NOW - 1000);
+        Block second = block(genesis, NOW + BlockValidator.MAX_CLOCK_DRIFT);
+
+        assertEquals(-1, verify(null, genesis, second));
+    }
+
+    @Test
+    public void rejectsTimestampBeyondClockDrift() {
+        Block genesis = block(null, NOW - 1000);
+        Block second = block(genesis, NOW + BlockValidator.MAX_CLOCK_DRIFT + 1);
+
+        assertEquals(1, verify(null, genesis, second));
+    }
+
+    @Test
+    public void rejectsGenesisBeyondClockDrift() {
+        Block genesis = block(null, NOW + BlockValidator.MAX_CLOCK_DRIFT + 1);
+
+        assertEquals(0, verify(null, genesis));
+    }
+
+    /*
+     * Verifies the links of the given candidates on top of the given
+     * reference block, at a fixed point in time.
+     */
+    private int verify(final Block reference, final Block... candidates) {
+        return validator.verifyLinks(reference, candidates, index -> reference, NOW);
+    }
+
+    /*
+     * Creates the given number of distinct, signed, transactions.
+     */
+    private static List<Transaction> transactions(final int count) {
+        List<Transaction> transactions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            transactions.add(TransactionHelper.sign(KEY_PAIR, "0xFEDCBA987654321", "transaction " + i, NOW + i));
+
+        return transactions;
+    }
+
+    /*
+     * Mines a genesis block holding the given transactions.
+     */
+    private static Block mine(final List<Transaction> transactions) {
+        String merkleRoot = MerkleHelper.root(transactions);
+        String target = DifficultyHelper.INITIAL_TARGET;
+        ProofOfWork proofOfWork = new ProofOfWork(BlockHelper.buildRawBlockHeader(0, NOW, null, merkleRoot, target));
+        int[] binaryTarget = DifficultyHelper.parseTarget(target);
+        long nonce = 0;
+        while (!proofOfWork.test(nonce, binaryTarget))
+            nonce++;
+
+        return new Block(0, nonce, NOW, null, merkleRoot, target, transactions);
+    }
+
+    /*
+     * Creates a block on top of the given predecessor, with the target the
+     * predecessor calls for.
+     */
+    private static Block block(final Block previous, final long timestamp) {
+        return new Block(previous == null ? 0 : previous.index + 1,
+                0,
+                timestamp,
+                previous == null ? null : BlockHelper.hashBlock(previous),
+                MERKLE_ROOT,
+                DifficultyHelper.nextTarget(previous, index -> previous),
+                Collections.emptyList());
+    }
+
+}
@@ -0,0 +1,149 @@
+package com.jayway.blockchain;
+
+import java.lang.String;
+import java.lang.System;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies the Merkle roots of {@link MerkleHelper#root(List)} against trees
+ * built by hand, and that the proofs of {@link MerkleHelper#prove(int, List,
+ * String)} hold for every transaction, but not once tampered with.
+ */
+public class MerkleHelperTest {
+
+    @Test
+    public void rootOfNoTransactionsIsAllZeros() {
+        assertEquals(HashHelper.toHex(new byte[32]), MerkleHelper.root(Collections.emptyList()));
+    }
+
+    @Test
+    public void rootOfOneTransactionIsItsHash() {
+        List<Transaction> transactions = transactions(1);
+
+        assertEquals(transactions.get(0).hash, MerkleHelper.root(transactions));
+    }
+
+    @Test
+    public void rootOfEvenCount() {
+        List<Transaction> transactions = transactions(4);
+        String expected = combine(
+                combine(transactions.get(0).hash, transactions.get(1).hash),
+                combine(transactions.get(2).hash, transactions.get(3).hash));
+
+        assertEquals(expected, MerkleHelper.root(transactions));
+    }
+
+    @Test
+    public void rootOfOddCountPairsLastNodeWithItself() {
+        List<Transaction> transactions = transactions(5);
+        String left = combine(
+                combine(transactions.get(0).hash, transactions.get(1).hash),
+                combine(transactions.get(2).hash, transactions.get(3).hash));
+        String last = combine(transactions.get(4).hash, transactions.get(4).hash);
+        String right = combine(last, last);
+        String expected = combine(left, right);
+
+        assertEquals(expected, MerkleHelper.root(transactions));
+    }
+
+    @Test
+    public void proofHoldsAtEveryPosition() {
+        for (int count = 1; count <= 9; count++) {
+            List<Transaction> transactions = transactions(count);
+            String root = MerkleHelper.root(transactions);
+
+            for (Transaction transaction : transactions) {
+                MerkleProof proof = MerkleHelper.prove(7, transactions, transaction.hash);
+
+                assertEquals(root, proof.merkleRoot);
+                assertTrue(MerkleHelper.verify(proof, root));
+            }
+        }
+    }
+
+    @Test
+    public void noProofOfUnknownTransaction() {
+        assertNull(MerkleHelper.prove(7, transactions(3), HashHelper.hash("unknown")));
+    }
+
+    @Test
+    public void rejectsProofWithTamperedStep() {
+        List<Transaction> transactions = transactions(6);
+        String root = MerkleHelper.root(transactions);
+        MerkleProof proof = MerkleHelper.prove(7, transactions, transactions.get(2).hash);
+
+        for (int i = 0; i < proof.path.size(); i++) {
+            List<MerkleProof.Step> path = new ArrayList<>(proof.path);
+            MerkleProof.Step step = path.get(i);
+            path.set(i, new MerkleProof.Step(HashHelper.hash("tampered"), step.left));
+            assertFalse(MerkleHelper.verify(tamper(proof, proof.transaction, path), root));
+
+            path.set(i, new MerkleProof.Step(step.hash, !step.left));
+            assertFalse(MerkleHelper.verify(tamper(proof, proof.transaction, path), root));
+        }
+    }
+
+    @Test
+    public void rejectsProofOfOtherTransaction() {
+        List<Transaction> transactions = transactions(6);
+        String root = MerkleHelper.root(transactions);
+        MerkleProof proof = MerkleHelper.prove(7, transactions, transactions.get(2).hash);
+
+        assertFalse(MerkleHelper.verify(tamper(proof, transactions.get(3).hash, proof.path), root));
+    }
+
+    @Test
+    public void rejectsProofWithMalformedHash() {
+        List<Transaction> transactions = transactions(2);
+        String root = MerkleHelper.root(transactions);
+        MerkleProof proof = MerkleHelper.prove(7, transactions, transactions.get(0).hash);
+
+        assertFalse(MerkleHelper.verify(tamper(proof, "not hex", proof.path), root));
+    }
+
+    /*
+     * Creates the given number of transactions with distinct hashes. Only
+     * the hashes go into the tree, so the rest is left out.
+     */
+    private static List<Transaction> transactions(final int count) {
+        List<Transaction> transactions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            transactions.add(new Transaction(HashHelper.hash("transaction " + i), null, null, null, i, null));
+
+        return transactions;
+    }
+
+    /*
+     * Copies the given proof with another transaction hash and path.
+     */
+    private static MerkleProof tamper(final MerkleProof proof,
+                                      final String transaction,
+                                      final List<MerkleProof.Step> path) {
+
+        return new MerkleProof(proof.blockIndex, transaction, proof.merkleRoot, path);
+    }
+
+    /*
+     * Hashes two hex-string nodes into their parent, the way the tree is
+     * specified.
+     */
+    private static String combine(final String left, final String right) {
+        byte[] leftBytes = HashHelper.fromHex(left);
+        byte[] rightBytes = HashHelper.fromHex(right);
+        byte[] both = new byte[leftBytes.length + rightBytes.length];
+        System.arraycopy(leftBytes, 0, both, 0, leftBytes.length);
+        System.arraycopy(rightBytes, 0, both, leftBytes.length, rightBytes.length);
+        return HashHelper.toHex(HashHelper.digest(both));
+    }
+
+}